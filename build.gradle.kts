@@ -18,6 +18,7 @@ dependencies {
 
     compileOnly("com.github.luben:zstd-jni:1.5.7-4")
     compileOnly("com.aayushatharva.brotli4j:brotli4j:1.18.0")
+    compileOnly("org.lz4:lz4-java:1.8.0")
     compileOnly("it.unimi.dsi:fastutil:8.5.15")
     compileOnly("com.google.guava:guava:33.4.0-jre")
     compileOnly("com.google.code.gson:gson:2.12.1")
@@ -0,0 +1,289 @@
+package one.pkg.tinyutils.compress;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * A codec that samples the beginning of the data and picks the codec and level that suit it best.
+ * <p>
+ * The first {@code sampleSize} bytes are buffered and analysed: their byte entropy and the ratio of a
+ * quick deflate pass decide whether the data is stored as-is (already compressed media such as PNG or
+ * ZIP), compressed with the fastest available codec (barely compressible data), compressed with a
+ * general purpose codec, or compressed with the strongest available codec (text). The codec is written as a one-byte header, so {@link #createDecompressStream(InputStream)}
+ * detects it automatically. Codecs whose library is missing from the classpath are never chosen.
+ */
+public class AdaptiveCompress implements ICompress {
+    public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+    private static final AdaptiveCompress INSTANCE = new AdaptiveCompress(DEFAULT_SAMPLE_SIZE);
+    private static final double STORED_RATIO = 0.97;
+    private static final double FAST_RATIO = 0.85;
+    private static final double TEXT_RATIO = 0.5;
+    private static final double TEXT_ENTROPY = 5.5;
+
+    private final int sampleSize;
+
+    private AdaptiveCompress(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    public static ICompress getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates an adaptive codec that analyses the given number of leading bytes.
+     *
+     * @param sampleSize the number of bytes buffered before choosing a codec
+     * @return a new adaptive codec
+     */
+    public static ICompress withSampleSize(int sampleSize) {
+        if (sampleSize <= 0) throw new IllegalArgumentException("Sample size must be positive");
+        return new AdaptiveCompress(sampleSize);
+    }
+
+    /**
+     * Chooses a codec and level for data that starts with the given sample.
+     *
+     * @param sample the sample data
+     * @param offset the start offset of the sample
+     * @param length the number of sample bytes
+     * @return the codec and level that should be used
+     */
+    public static @NotNull Choice choose(byte[] sample, int offset, int length) {
+        if (length == 0) return Choice.STORED;
+
+        double ratio = deflateRatio(sample, offset, length);
+        if (ratio >= STORED_RATIO) return Choice.STORED;
+
+        if (ratio >= FAST_RATIO) {
+            if (Codec.LZ4.isAvailable()) return new Choice(Codec.LZ4, 0);
+            if (Codec.ZSTD.isAvailable()) return new Choice(Codec.ZSTD, 1);
+            return new Choice(Codec.DEFLATE, Deflater.BEST_SPEED);
+        }
+
+        if (ratio < TEXT_RATIO && entropy(sample, offset, length) < TEXT_ENTROPY) {
+            if (Codec.BROTLI.isAvailable()) return new Choice(Codec.BROTLI, 9);
+            if (Codec.ZSTD.isAvailable()) return new Choice(Codec.ZSTD, 12);
+            return new Choice(Codec.DEFLATE, Deflater.BEST_COMPRESSION);
+        }
+
+        if (Codec.ZSTD.isAvailable()) return new Choice(Codec.ZSTD, ZstdCompress.DEFAULT_LEVEL);
+        return new Choice(Codec.DEFLATE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Computes the Shannon entropy of the given bytes.
+     *
+     * @param data   the data
+     * @param offset the start offset
+     * @param length the number of bytes
+     * @return the entropy in bits per byte, between 0 and 8
+     */
+    public static double entropy(byte[] data, int offset, int length) {
+        if (length == 0) return 0;
+        int[] counts = new int[256];
+        for (int i = offset, end = offset + length; i < end; i++) counts[data[i] & 0xff]++;
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+    private static double deflateRatio(byte[] data, int offset, int length) {
+        ContextPool<Deflater> pool = BaseCompress.GZIP.getDeflaterPool();
+        Deflater deflater = pool.lease();
+        try {
+            deflater.setLevel(Deflater.BEST_SPEED);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+                if (compressed >= length) break;
+            }
+            return (double) compressed / length;
+        } finally {
+            pool.release(deflater);
+        }
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        int id = is.read();
+        if (id == -1) throw new EOFException("Missing adaptive compression header");
+        Codec codec = Codec.of(id);
+        ICompress compress = codec.getCompress();
+        return compress == null ? is : compress.createDecompressStream(is);
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) {
+        return new SamplingOutputStream(os);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".adz";
+    }
+
+    public enum Codec {
+        STORED(0, 0, -1),
+        DEFLATE(1, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION),
+        ZSTD(2, 0, ZstdCompress.MAX_LEVEL),
+        BROTLI(3, 0, BrotliCompress.MAX_QUALITY),
+        LZ4(4, 0, Lz4Compress.MAX_HIGH_LEVEL);
+
+        private static final Codec[] VALUES = values();
+        private final int id;
+        private final int minLevel;
+        /**
+         * The codec for each level from {@code minLevel}, created on first use. A race only creates a duplicate.
+         */
+        private final ICompress[] leveled;
+
+        Codec(int id, int minLevel, int maxLevel) {
+            this.id = id;
+            this.minLevel = minLevel;
+            this.leveled = new ICompress[maxLevel - minLevel + 1];
+        }
+
+        static Codec of(int id) throws IOException {
+            for (Codec codec : VALUES) {
+                if (codec.id == id) return codec;
+            }
+            throw new IOException("Unknown adaptive compression codec: " + id);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public @Nullable ICompress getCompress() {
+            return switch (this) {
+                case STORED -> null;
+                case DEFLATE -> BaseCompress.DEFLATE;
+                case ZSTD -> ZstdCompress.getInstance();
+                case BROTLI -> BrotliCompress.getInstance();
+                case LZ4 -> Lz4Compress.getInstance();
+            };
+        }
+
+        public boolean isAvailable() {
+            ICompress compress = getCompress();
+            return compress == null || compress.isAvailable();
+        }
+
+        private @Nullable ICompress getCompress(int level) {
+            if (this == STORED) return null;
+            int index = level - minLevel;
+            // Levels outside the cached range, such as negative zstd levels, get a codec of their own
+            if (index < 0 || index >= leveled.length) return create(level);
+            ICompress compress = leveled[index];
+            if (compress == null) leveled[index] = compress = create(level);
+            return compress;
+        }
+
+        private ICompress create(int level) {
+            return switch (this) {
+                case STORED -> throw new IllegalStateException("Stored data has no codec");
+                case DEFLATE -> BaseCompress.DEFLATE.withLevel(level);
+                case ZSTD -> ZstdCompress.withLevel(level);
+                case BROTLI -> BrotliCompress.withQuality(level);
+                case LZ4 -> Lz4Compress.withLevel(level);
+            };
+        }
+    }
+
+    /**
+     * A codec together with the level it should compress with.
+     *
+     * @param codec the chosen codec
+     * @param level the codec specific level or quality
+     */
+    public record Choice(Codec codec, int level) {
+        public static final Choice STORED = new Choice(Codec.STORED, 0);
+
+        /**
+         * @return the codec compressing with this level, shared by every choice of the same codec and level
+         */
+        public @Nullable ICompress getCompress() {
+            return codec.getCompress(level);
+        }
+    }
+
+    private final class SamplingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private byte[] sample = new byte[Math.min(sampleSize, 8192)];
+        private int count;
+        private OutputStream delegate;
+        private boolean closed;
+
+        private SamplingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (delegate != null) {
+                delegate.write(b, off, len);
+                return;
+            }
+            int n = Math.min(len, sampleSize - count);
+            if (count + n > sample.length) {
+                byte[] grown = new byte[Math.min(sampleSize, Math.max(count + n, sample.length * 2))];
+                System.arraycopy(sample, 0, grown, 0, count);
+                sample = grown;
+            }
+            System.arraycopy(b, off, sample, count, n);
+            count += n;
+            if (count == sampleSize) {
+                start();
+                if (len > n) delegate.write(b, off + n, len - n);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (delegate == null) start();
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            try {
+                if (delegate == null) start();
+            } finally {
+                closed = true;
+                (delegate != null ? delegate : out).close();
+            }
+        }
+
+        private void start() throws IOException {
+            Choice choice = choose(sample, 0, count);
+            out.write(choice.codec().id);
+            ICompress compress = choice.getCompress();
+            delegate = compress == null ? out : compress.createCompressStream(out);
+            delegate.write(sample, 0, count);
+            sample = null;
+        }
+    }
+}
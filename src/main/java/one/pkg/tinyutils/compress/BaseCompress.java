@@ -3,43 +3,106 @@ package one.pkg.tinyutils.compress;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public enum BaseCompress implements ICompress {
-    DEFLATE(".deflate") {
+    DEFLATE(".deflate", false) {
         @Override
         public InputStream createDecompressStream(InputStream is) {
-            return new InflaterInputStream(is);
+            return new ZlibStreams.PooledInflaterInputStream(is, inflaters);
         }
 
         @Override
-        public OutputStream createCompressStream(OutputStream os) {
-            return new DeflaterOutputStream(os);
+        OutputStream createCompressStream(OutputStream os, int level) {
+            return new ZlibStreams.PooledDeflaterOutputStream(os, deflaters, level);
         }
     },
-    GZIP(".gz") {
+    GZIP(".gz", true) {
         @Override
         public InputStream createDecompressStream(InputStream is) throws IOException {
-            return new GZIPInputStream(is);
+            return new ZlibStreams.PooledGZIPInputStream(is, inflaters);
         }
 
         @Override
-        public OutputStream createCompressStream(OutputStream os) throws IOException {
-            return new GZIPOutputStream(os);
+        OutputStream createCompressStream(OutputStream os, int level) throws IOException {
+            return new ZlibStreams.PooledGZIPOutputStream(os, deflaters, level);
         }
     };
 
     final String fileExtension;
+    final ContextPool<Deflater> deflaters;
+    final ContextPool<Inflater> inflaters;
 
-    BaseCompress(String fileExtension) {
+    BaseCompress(String fileExtension, boolean nowrap) {
         this.fileExtension = fileExtension;
+        this.deflaters = new ContextPool<>(ContextPool.defaultCapacity(),
+                () -> new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap), Deflater::reset, Deflater::end);
+        this.inflaters = new ContextPool<>(ContextPool.defaultCapacity(),
+                () -> new Inflater(nowrap), Inflater::reset, Inflater::end);
     }
 
+    @Override
+    public OutputStream createCompressStream(OutputStream os) throws IOException {
+        return createCompressStream(os, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    abstract OutputStream createCompressStream(OutputStream os, int level) throws IOException;
+
     @Override
     public String getFileExtension() {
         return fileExtension;
     }
+
+    /**
+     * Returns a view of this codec that compresses with the given level instead of the zlib default.
+     *
+     * @param level the compression level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION},
+     *              or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return a codec producing the same format with the given level
+     */
+    public ICompress withLevel(int level) {
+        checkLevel(level);
+        return new Leveled(this, level);
+    }
+
+    static void checkLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9, or -1 for the default");
+    }
+
+    /**
+     * Returns the pool of compression contexts shared by the streams of this codec.
+     *
+     * @return the {@link Deflater} pool, raw (no zlib wrapper) for {@link #GZIP}
+     */
+    public ContextPool<Deflater> getDeflaterPool() {
+        return deflaters;
+    }
+
+    /**
+     * Returns the pool of decompression contexts shared by the streams of this codec.
+     *
+     * @return the {@link Inflater} pool, raw (no zlib wrapper) for {@link #GZIP}
+     */
+    public ContextPool<Inflater> getInflaterPool() {
+        return inflaters;
+    }
+
+    private record Leveled(BaseCompress format, int level) implements ICompress {
+        @Override
+        public InputStream createDecompressStream(InputStream is) throws IOException {
+            return format.createDecompressStream(is);
+        }
+
+        @Override
+        public OutputStream createCompressStream(OutputStream os) throws IOException {
+            return format.createCompressStream(os, level);
+        }
+
+        @Override
+        public String getFileExtension() {
+            return format.getFileExtension();
+        }
+    }
 }
@@ -7,35 +7,68 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 public class BrotliCompress implements ICompress {
-    private static final ICompress INSTANCE = new BrotliCompress();
-    private final boolean hasDependency = Reflect.hasClass("com.aayushatharva.brotli4j.decoder.BrotliInputStream");
+    public static final int MAX_QUALITY = 11;
+    private static final boolean hasDependency = Reflect.hasClass("com.aayushatharva.brotli4j.decoder.BrotliInputStream");
+    private static final ICompress INSTANCE = new BrotliCompress(-1);
+    private final int quality;
 
-    private BrotliCompress() {
+    private BrotliCompress(int quality) {
+        this.quality = quality;
     }
 
     public static ICompress getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Creates a Brotli codec with the given quality instead of the library default.
+     *
+     * @param quality the compression quality, from {@code 0} (fastest) to {@value #MAX_QUALITY} (smallest)
+     * @return a Brotli codec using the given quality
+     */
+    public static ICompress withQuality(int quality) {
+        if (quality < 0 || quality > MAX_QUALITY)
+            throw new IllegalArgumentException("Brotli quality must be between 0 and " + MAX_QUALITY);
+        return new BrotliCompress(quality);
+    }
+
     protected void checkDependencyPresent(String operation) throws IOException {
         if (!hasDependency)
             throw new IOException(operation + " requires the 'com.aayushatharva.brotli4j:brotli4j' library to be present on the classpath");
     }
 
+    @Override
+    public boolean isAvailable() {
+        return hasDependency;
+    }
+
     @Override
     public InputStream createDecompressStream(InputStream is) throws IOException {
         checkDependencyPresent("BROTLI decompression");
-        return new com.aayushatharva.brotli4j.decoder.BrotliInputStream(is);
+        return Streams.decompress(is);
     }
 
     @Override
     public OutputStream createCompressStream(OutputStream os) throws IOException {
         checkDependencyPresent("BROTLI compression");
-        return new com.aayushatharva.brotli4j.encoder.BrotliOutputStream(os);
+        return Streams.compress(os, quality);
     }
 
     @Override
     public String getFileExtension() {
         return ".zst";
     }
+
+    // Kept in a nested class so BrotliCompress itself can be loaded and verified without brotli4j.
+    private static final class Streams {
+        private static InputStream decompress(InputStream is) throws IOException {
+            return new com.aayushatharva.brotli4j.decoder.BrotliInputStream(is);
+        }
+
+        private static OutputStream compress(OutputStream os, int quality) throws IOException {
+            if (quality < 0) return new com.aayushatharva.brotli4j.encoder.BrotliOutputStream(os);
+            var parameters = new com.aayushatharva.brotli4j.encoder.Encoder.Parameters().setQuality(quality);
+            return new com.aayushatharva.brotli4j.encoder.BrotliOutputStream(os, parameters);
+        }
+    }
 }
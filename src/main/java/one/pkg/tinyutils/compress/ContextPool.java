@@ -0,0 +1,121 @@
+package one.pkg.tinyutils.compress;
+
+import one.pkg.tinyutils.data.Validate;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, thread-safe pool of reusable compression contexts such as {@link java.util.zip.Deflater}.
+ * <p>
+ * Contexts are leased for the lifetime of a single stream, reset when released and kept for the next
+ * lease. When the pool is full, released contexts are destroyed instead of being kept, so the number
+ * of idle native contexts never exceeds the capacity.
+ *
+ * @param <T> the type of the pooled context
+ */
+public final class ContextPool<T> {
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final int capacity;
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final Consumer<T> destroy;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param capacity the maximum number of idle contexts kept by the pool
+     * @param factory  creates a new context when the pool is empty
+     * @param reset    restores a released context to its initial state
+     * @param destroy  frees a context that is not kept by the pool
+     */
+    public ContextPool(int capacity, @NotNull Supplier<T> factory, @NotNull Consumer<T> reset, @NotNull Consumer<T> destroy) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative");
+        Validate.notNull(factory, "Factory must not be null");
+        Validate.notNull(reset, "Reset must not be null");
+        Validate.notNull(destroy, "Destroy must not be null");
+        this.capacity = capacity;
+        this.factory = factory;
+        this.reset = reset;
+        this.destroy = destroy;
+    }
+
+    /**
+     * Returns the default capacity used by the built-in codecs, two contexts per available processor.
+     *
+     * @return the default pool capacity
+     */
+    public static int defaultCapacity() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * Takes an idle context from the pool, or creates a new one if none is available.
+     *
+     * @return a context ready for use, which should be handed back with {@link #release(Object)}
+     */
+    public @NotNull T lease() {
+        leases.increment();
+        T context = idle.poll();
+        if (context != null) {
+            size.decrementAndGet();
+            return context;
+        }
+        misses.increment();
+        return factory.get();
+    }
+
+    /**
+     * Resets a context and returns it to the pool, destroying it if the pool is already full.
+     *
+     * @param context the context obtained from {@link #lease()}
+     */
+    public void release(@NotNull T context) {
+        try {
+            reset.accept(context);
+        } catch (RuntimeException e) {
+            destroy.accept(context);
+            return;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            destroy.accept(context);
+            return;
+        }
+        idle.offer(context);
+    }
+
+    /**
+     * Destroys every idle context held by the pool.
+     */
+    public void clear() {
+        T context;
+        while ((context = idle.poll()) != null) {
+            size.decrementAndGet();
+            destroy.accept(context);
+        }
+    }
+
+    public long getLeases() {
+        return leases.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -3,6 +3,9 @@ package one.pkg.tinyutils.compress;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 public interface ICompress {
     int BUFFER_SIZE = 1024;
@@ -24,6 +27,78 @@ public interface ICompress {
         }
     }
 
+    /**
+     * Compresses the remaining bytes of {@code src} into the remaining space of {@code dst}.
+     * <p>
+     * The position of {@code src} is advanced to its limit and the position of {@code dst} past the written data.
+     * Implementations backed by a native library may work on direct buffers without copying them to the heap.
+     *
+     * @param src the data to compress
+     * @param dst the buffer receiving the compressed data
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if compression fails or {@code dst} is too small
+     */
+    default int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        compress(new BufferStreams.ByteBufferInputStream(src), new BufferStreams.ByteBufferOutputStream(dst));
+        return dst.position() - start;
+    }
+
+    /**
+     * Decompresses the remaining bytes of {@code src} into the remaining space of {@code dst}.
+     * <p>
+     * The position of {@code src} is advanced past the consumed data and the position of {@code dst} past the written data.
+     *
+     * @param src the compressed data
+     * @param dst the buffer receiving the decompressed data
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if decompression fails or {@code dst} is too small
+     */
+    default int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        decompress(new BufferStreams.ByteBufferInputStream(src), new BufferStreams.ByteBufferOutputStream(dst));
+        return dst.position() - start;
+    }
+
+    /**
+     * Compresses {@code src} from its current position to its end, writing at the current position of {@code dst}.
+     * Neither channel is closed.
+     *
+     * @param src the channel to read uncompressed data from
+     * @param dst the channel to write compressed data to
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if an I/O error occurs
+     */
+    default long compress(FileChannel src, FileChannel dst) throws IOException {
+        long start = dst.position();
+        compress(BufferStreams.nonClosing(Channels.newInputStream(src)), BufferStreams.nonClosing(Channels.newOutputStream(dst)));
+        return dst.position() - start;
+    }
+
+    /**
+     * Decompresses {@code src} from its current position, writing at the current position of {@code dst}.
+     * Neither channel is closed.
+     *
+     * @param src the channel to read compressed data from
+     * @param dst the channel to write decompressed data to
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if an I/O error occurs
+     */
+    default long decompress(FileChannel src, FileChannel dst) throws IOException {
+        long start = dst.position();
+        decompress(BufferStreams.nonClosing(Channels.newInputStream(src)), BufferStreams.nonClosing(Channels.newOutputStream(dst)));
+        return dst.position() - start;
+    }
+
+    /**
+     * Checks whether the libraries backing this codec are present, so it can be used without failing.
+     *
+     * @return {@code true} if streams can be created by this codec
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
     InputStream createDecompressStream(InputStream is) throws IOException;
 
     OutputStream createCompressStream(OutputStream os) throws IOException;
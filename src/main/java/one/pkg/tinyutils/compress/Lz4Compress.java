@@ -0,0 +1,90 @@
+package one.pkg.tinyutils.compress;
+
+import one.pkg.tinyutils.Reflect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LZ4 frame format codec for latency-critical paths.
+ * <p>
+ * {@link #getInstance()} uses the fast LZ4 compressor, {@link #getHighInstance()} and {@link #withLevel(int)}
+ * use LZ4-HC, which compresses slower but decompresses just as fast. All variants produce standard LZ4
+ * frames readable by any LZ4 implementation.
+ */
+public class Lz4Compress implements ICompress {
+    public static final int DEFAULT_HIGH_LEVEL = 9;
+    public static final int MAX_HIGH_LEVEL = 17;
+    private static final boolean hasDependency = Reflect.hasClass("net.jpountz.lz4.LZ4FrameOutputStream");
+    private static final ICompress INSTANCE = new Lz4Compress(0);
+    private static final ICompress HIGH_INSTANCE = new Lz4Compress(DEFAULT_HIGH_LEVEL);
+    private final int level;
+
+    private Lz4Compress(int level) {
+        this.level = level;
+    }
+
+    public static ICompress getInstance() {
+        return INSTANCE;
+    }
+
+    public static ICompress getHighInstance() {
+        return HIGH_INSTANCE;
+    }
+
+    /**
+     * Creates an LZ4 codec with the given compression level.
+     *
+     * @param level {@code 0} for the fast compressor, or an LZ4-HC level from {@code 1} to {@value #MAX_HIGH_LEVEL}
+     * @return an LZ4 codec using the given level
+     */
+    public static ICompress withLevel(int level) {
+        if (level < 0 || level > MAX_HIGH_LEVEL)
+            throw new IllegalArgumentException("LZ4 level must be between 0 and " + MAX_HIGH_LEVEL);
+        return level == 0 ? INSTANCE : new Lz4Compress(level);
+    }
+
+    protected void checkDependencyPresent(String operation) throws IOException {
+        if (!hasDependency)
+            throw new IOException(operation + " requires the 'org.lz4:lz4-java' library to be present on the classpath");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return hasDependency;
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        checkDependencyPresent("LZ4 decompression");
+        return Streams.decompress(is);
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) throws IOException {
+        checkDependencyPresent("LZ4 compression");
+        return Streams.compress(os, level);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".lz4";
+    }
+
+    // Kept in a nested class so Lz4Compress itself can be loaded and verified without lz4-java.
+    private static final class Streams {
+        private static InputStream decompress(InputStream is) throws IOException {
+            return new net.jpountz.lz4.LZ4FrameInputStream(is);
+        }
+
+        private static OutputStream compress(OutputStream os, int level) throws IOException {
+            var factory = net.jpountz.lz4.LZ4Factory.fastestInstance();
+            var compressor = level > 0 ? factory.highCompressor(level) : factory.fastCompressor();
+            return new net.jpountz.lz4.LZ4FrameOutputStream(os,
+                    net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, -1L, compressor,
+                    net.jpountz.xxhash.XXHashFactory.fastestInstance().hash32(),
+                    net.jpountz.lz4.LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package one.pkg.tinyutils.compress;
+
+import one.pkg.tinyutils.data.VarInt;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Minecraft protocol packet compression with threshold framing.
+ * <p>
+ * Once compression is enabled every packet body is prefixed with a VarInt data length: {@code 0} followed by the
+ * raw body when the body is shorter than the threshold, otherwise the uncompressed length followed by the zlib
+ * compressed body. The outer packet length prefix is left to the frame encoder.
+ * <p>
+ * An instance owns one {@link Deflater} and one {@link Inflater} that are reset and reused for every packet, so it
+ * is meant to be kept per connection and is not thread-safe. Both directions work on the buffers directly, with
+ * no intermediate arrays; direct buffers are handed to zlib without copying.
+ */
+public final class PacketCompressor implements AutoCloseable {
+    /**
+     * The largest uncompressed packet size the vanilla client and server accept.
+     */
+    public static final int MAX_UNCOMPRESSED_SIZE = 8 * 1024 * 1024;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private int threshold;
+    private boolean closed;
+
+    /**
+     * Creates a packet compressor using the default zlib level.
+     *
+     * @param threshold the smallest body size that is compressed
+     */
+    public PacketCompressor(int threshold) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a packet compressor.
+     *
+     * @param threshold the smallest body size that is compressed
+     * @param level     the deflate level, see {@link BaseCompress#withLevel(int)}
+     */
+    public PacketCompressor(int threshold, int level) {
+        BaseCompress.checkLevel(level);
+        setThreshold(threshold);
+        this.deflater = new Deflater(level);
+    }
+
+    /**
+     * Returns an upper bound for the bytes {@link #compress(ByteBuffer, ByteBuffer)} writes for a body of the given size.
+     *
+     * @param length the uncompressed body size
+     * @return the number of bytes the destination buffer needs at most
+     */
+    public static int maxCompressedLength(int length) {
+        // zlib compressBound, including the zlib wrapper
+        long bound = (long) length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13;
+        return (int) Math.min(Integer.MAX_VALUE, VarInt.MAX_SIZE + bound);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Changes the threshold, e.g. after the server sent a new Set Compression packet.
+     *
+     * @param threshold the smallest body size that is compressed
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Threshold must not be negative");
+        this.threshold = threshold;
+    }
+
+    /**
+     * Writes the data length and the (possibly compressed) body.
+     * <p>
+     * The position of {@code src} is advanced to its limit and the position of {@code dst} past the written data.
+     * On failure the position of {@code dst} is left unchanged.
+     *
+     * @param src the packet body, starting with the packet id
+     * @param dst the buffer receiving the framed body; see {@link #maxCompressedLength(int)}
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if {@code dst} is too small or the compressor was closed
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        ensureOpen();
+        int start = dst.position();
+        int length = src.remaining();
+        try {
+            if (length < threshold) {
+                VarInt.write(dst, 0);
+                dst.put(src);
+                return dst.position() - start;
+            }
+
+            VarInt.write(dst, length);
+            deflater.setInput(src);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!dst.hasRemaining()) throw new BufferOverflowException();
+                deflater.deflate(dst);
+            }
+            return dst.position() - start;
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw new IOException("Destination buffer is too small", e);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Reads the data length and writes the uncompressed body.
+     * <p>
+     * The position of {@code src} is advanced to its limit and the position of {@code dst} past the written data.
+     *
+     * @param src the framed body, i.e. a packet without its outer length prefix
+     * @param dst the buffer receiving the packet body
+     * @return the number of bytes written to {@code dst}
+     * @throws IOException if the packet is malformed, violates the threshold, or {@code dst} is too small
+     */
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        ensureOpen();
+        int dataLength;
+        try {
+            dataLength = VarInt.read(src);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed packet data length", e);
+        }
+
+        if (dataLength == 0) {
+            int length = src.remaining();
+            if (length > dst.remaining()) throw new IOException("Destination buffer is too small", new BufferOverflowException());
+            dst.put(src);
+            return length;
+        }
+        if (dataLength < threshold)
+            throw new IOException("Badly compressed packet: size " + dataLength + " is below the threshold " + threshold);
+        if (dataLength > MAX_UNCOMPRESSED_SIZE)
+            throw new IOException("Badly compressed packet: size " + dataLength + " exceeds " + MAX_UNCOMPRESSED_SIZE);
+        if (dataLength > dst.remaining()) throw new IOException("Destination buffer is too small", new BufferOverflowException());
+
+        int start = dst.position();
+        int limit = dst.limit();
+        dst.limit(start + dataLength);
+        try {
+            inflater.setInput(src);
+            while (dst.hasRemaining()) {
+                if (inflater.inflate(dst) == 0) {
+                    if (inflater.finished() || inflater.needsInput()) break;
+                    if (inflater.needsDictionary()) throw new IOException("Packet requires a preset dictionary");
+                }
+            }
+            int written = dst.position() - start;
+            if (written != dataLength)
+                throw new IOException("Badly compressed packet: expected " + dataLength + " bytes, got " + written);
+            src.position(src.limit());
+            return written;
+        } catch (DataFormatException e) {
+            throw new IOException("Badly compressed packet", e);
+        } finally {
+            dst.limit(limit);
+            inflater.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        deflater.end();
+        inflater.end();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Packet compressor closed");
+    }
+}
@@ -0,0 +1,354 @@
+package one.pkg.tinyutils.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * A pigz-style GZIP/DEFLATE codec that compresses independent blocks of the input concurrently.
+ * <p>
+ * Every block is deflated on a {@link ForkJoinPool}, primed with the last 32 KiB of the previous block
+ * as a preset dictionary, and terminated with a sync flush so the blocks can simply be concatenated.
+ * The resulting stream is a regular single-member GZIP (or zlib) stream that any standard reader can
+ * decode, so decompression is delegated to {@link BaseCompress}. Blocks lease their raw {@link Deflater}
+ * from the {@link BaseCompress#GZIP} context pool.
+ * <p>
+ * The shared instances use the common pool. A codec created with a thread count owns a new pool, so it should be
+ * kept and reused rather than created per stream, and {@link #close() closed} once it is no longer needed.
+ */
+public class ParallelCompress implements ICompress, AutoCloseable {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final ICompress GZIP = new ParallelCompress(BaseCompress.GZIP, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool(), false);
+    private static final ICompress DEFLATE = new ParallelCompress(BaseCompress.DEFLATE, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool(), false);
+
+    private final BaseCompress format;
+    private final int blockSize;
+    private final int level;
+    private final ForkJoinPool pool;
+    /**
+     * Whether {@link #close()} shuts the pool down, which is only the case for a pool created by this codec.
+     */
+    private final boolean ownsPool;
+
+    private ParallelCompress(BaseCompress format, int blockSize, int level, ForkJoinPool pool, boolean ownsPool) {
+        this.format = format;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Returns a parallel GZIP codec using the default block size and the common fork-join pool.
+     *
+     * @return the shared parallel GZIP instance
+     */
+    public static ICompress gzip() {
+        return GZIP;
+    }
+
+    /**
+     * Creates a parallel GZIP codec with its own worker pool. The codec should be reused, and closed when it is no
+     * longer needed to shut the pool down.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads   the number of worker threads compressing blocks
+     * @return a new parallel GZIP instance
+     */
+    public static ParallelCompress gzip(int blockSize, int threads) {
+        return gzip(blockSize, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a parallel GZIP codec with its own worker pool and the given compression level. The codec should be
+     * reused, and closed when it is no longer needed to shut the pool down.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads   the number of worker threads compressing blocks
+     * @param level     the deflate level, see {@link BaseCompress#withLevel(int)}
+     * @return a new parallel GZIP instance
+     */
+    public static ParallelCompress gzip(int blockSize, int threads, int level) {
+        return create(BaseCompress.GZIP, blockSize, threads, level);
+    }
+
+    /**
+     * Creates a parallel GZIP codec compressing blocks on the caller's pool, which {@link #close()} leaves running.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param pool      the pool compressing blocks
+     * @param level     the deflate level, see {@link BaseCompress#withLevel(int)}
+     * @return a new parallel GZIP instance
+     */
+    public static ParallelCompress gzip(int blockSize, ForkJoinPool pool, int level) {
+        return create(BaseCompress.GZIP, blockSize, pool, level);
+    }
+
+    /**
+     * Returns a parallel zlib (DEFLATE) codec using the default block size and the common fork-join pool.
+     *
+     * @return the shared parallel DEFLATE instance
+     */
+    public static ICompress deflate() {
+        return DEFLATE;
+    }
+
+    /**
+     * Creates a parallel zlib (DEFLATE) codec with its own worker pool. The codec should be reused, and closed when it
+     * is no longer needed to shut the pool down.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads   the number of worker threads compressing blocks
+     * @return a new parallel DEFLATE instance
+     */
+    public static ParallelCompress deflate(int blockSize, int threads) {
+        return deflate(blockSize, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a parallel zlib (DEFLATE) codec with its own worker pool and the given compression level. The codec
+     * should be reused, and closed when it is no longer needed to shut the pool down.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads   the number of worker threads compressing blocks
+     * @param level     the deflate level, see {@link BaseCompress#withLevel(int)}
+     * @return a new parallel DEFLATE instance
+     */
+    public static ParallelCompress deflate(int blockSize, int threads, int level) {
+        return create(BaseCompress.DEFLATE, blockSize, threads, level);
+    }
+
+    /**
+     * Creates a parallel zlib (DEFLATE) codec compressing blocks on the caller's pool, which {@link #close()} leaves
+     * running.
+     *
+     * @param blockSize the number of uncompressed bytes per block
+     * @param pool      the pool compressing blocks
+     * @param level     the deflate level, see {@link BaseCompress#withLevel(int)}
+     * @return a new parallel DEFLATE instance
+     */
+    public static ParallelCompress deflate(int blockSize, ForkJoinPool pool, int level) {
+        return create(BaseCompress.DEFLATE, blockSize, pool, level);
+    }
+
+    private static ParallelCompress create(BaseCompress format, int blockSize, int threads, int level) {
+        if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+        checkArguments(blockSize, level);
+        return new ParallelCompress(format, blockSize, level, new ForkJoinPool(threads), true);
+    }
+
+    private static ParallelCompress create(BaseCompress format, int blockSize, ForkJoinPool pool, int level) {
+        checkArguments(blockSize, level);
+        return new ParallelCompress(format, blockSize, level, pool, false);
+    }
+
+    private static void checkArguments(int blockSize, int level) {
+        if (blockSize <= 0) throw new IllegalArgumentException("Block size must be positive");
+        BaseCompress.checkLevel(level);
+    }
+
+    /**
+     * Shuts down the worker pool if this codec created it. Streams still compressing fail once the pool is shut down.
+     * Codecs on the common or a caller's pool are not affected.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) pool.shutdown();
+    }
+
+    private static byte[] zlibHeader(int level) {
+        int compressionLevel;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) compressionLevel = 2;
+        else if (level < 2) compressionLevel = 0;
+        else if (level < 6) compressionLevel = 1;
+        else compressionLevel = 3;
+
+        int cmf = 0x78;
+        int flg = compressionLevel << 6;
+        flg += 31 - ((cmf << 8) | flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        return format.createDecompressStream(is);
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) {
+        return new BlockDeflaterOutputStream(os);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return format.getFileExtension();
+    }
+
+    private static byte[] deflateBlock(byte[] block, int length, byte[] dictionary, int dictionaryLength, int level, boolean last) {
+        ContextPool<Deflater> deflaters = BaseCompress.GZIP.getDeflaterPool();
+        Deflater deflater = deflaters.lease();
+        try {
+            deflater.setLevel(level);
+            // setLevel only takes effect on the next deflate call; apply it before the dictionary is loaded,
+            // otherwise zlib switches match strategy with the dictionary already hashed and emits bad distances.
+            deflater.deflate(EMPTY, 0, 0, Deflater.NO_FLUSH);
+            if (dictionaryLength > 0)
+                deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+            deflater.setInput(block, 0, length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length >>> 1));
+            byte[] buffer = new byte[Math.max(BUFFER_SIZE, length >>> 2)];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int written;
+                do {
+                    written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, written);
+                } while (written == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflaters.release(deflater);
+        }
+    }
+
+    private final class BlockDeflaterOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private final Checksum checksum = format == BaseCompress.GZIP ? new CRC32() : new Adler32();
+        private final int maxPending = Math.max(2, pool.getParallelism() * 2);
+        private byte[] buffer = new byte[blockSize];
+        private byte[] previous = new byte[0];
+        private int count;
+        private long totalIn;
+        private boolean headerWritten;
+        private boolean closed;
+
+        private BlockDeflaterOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            buffer[count++] = (byte) b;
+            if (count == buffer.length) submitBlock(false);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) submitBlock(false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            if (count > 0) submitBlock(false);
+            drain(0);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try (out) {
+                submitBlock(true);
+                drain(0);
+                writeTrailer();
+                out.flush();
+            } finally {
+                for (Future<byte[]> future : pending) future.cancel(true);
+                pending.clear();
+            }
+        }
+
+        private void submitBlock(boolean last) throws IOException {
+            final byte[] block = buffer;
+            final int length = count;
+            final byte[] dictionary = previous;
+            final int dictionaryLength = Math.min(DICTIONARY_SIZE, dictionary.length);
+
+            checksum.update(block, 0, length);
+            totalIn += length;
+            pending.add(pool.submit(() -> deflateBlock(block, length, dictionary, dictionaryLength, level, last)));
+
+            if (length == block.length) {
+                previous = block;
+            } else {
+                previous = Arrays.copyOf(block, length);
+            }
+            buffer = new byte[blockSize];
+            count = 0;
+            drain(maxPending);
+        }
+
+        private void drain(int keep) throws IOException {
+            if (!headerWritten) {
+                out.write(format == BaseCompress.GZIP ? GZIP_HEADER : zlibHeader(level));
+                headerWritten = true;
+            }
+            while (pending.size() > keep) {
+                try {
+                    out.write(pending.peek().get());
+                    pending.poll();
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to compress block", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while compressing block");
+                }
+            }
+        }
+
+        private void writeTrailer() throws IOException {
+            long value = checksum.getValue();
+            if (format == BaseCompress.GZIP) {
+                writeIntLE((int) value);
+                writeIntLE((int) totalIn);
+            } else {
+                out.write((int) (value >>> 24));
+                out.write((int) (value >>> 16));
+                out.write((int) (value >>> 8));
+                out.write((int) value);
+            }
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+            out.write(value >>> 16);
+            out.write(value >>> 24);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+        }
+    }
+}
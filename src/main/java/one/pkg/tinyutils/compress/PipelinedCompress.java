@@ -0,0 +1,349 @@
+package one.pkg.tinyutils.compress;
+
+import one.pkg.tinyutils.jvm.JVMThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A codec that overlaps reading, (de)compressing and writing.
+ * <p>
+ * {@link #compress(InputStream, OutputStream)} and {@link #decompress(InputStream, OutputStream)} run three stages,
+ * each on its own thread from {@link JVMThread} (virtual threads when available): a reader filling pooled buffers
+ * from the source, a worker feeding them through the wrapped codec, and a writer draining the result to the
+ * destination. The stages hand buffers over through bounded queues, so a slow stage applies backpressure to the
+ * others and memory use stays at a few buffers. Like the serial versions, {@code compress} closes the destination but
+ * not the source, and {@code decompress} closes the source but not the destination. A failing stage stops the others
+ * without interrupting them, so channels behind the streams are not closed by an interrupt.
+ * <p>
+ * The plain stream and {@link ByteBuffer} methods delegate to the wrapped codec unchanged.
+ */
+public class PipelinedCompress implements ICompress {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+    private static final Chunk EOF = new Chunk(new byte[0], -1);
+    /**
+     * How often a stage blocked on a queue checks whether another stage failed.
+     */
+    private static final long POLL_MILLIS = 50;
+
+    private final ICompress codec;
+    private final int queueDepth;
+    private final ContextPool<byte[]> buffers;
+
+    private PipelinedCompress(ICompress codec, int bufferSize, int queueDepth) {
+        this.codec = codec;
+        this.queueDepth = queueDepth;
+        this.buffers = new ContextPool<>(queueDepth * 4, () -> new byte[bufferSize], buffer -> {
+        }, buffer -> {
+        });
+    }
+
+    /**
+     * Creates a pipelined codec with {@value #DEFAULT_BUFFER_SIZE} byte buffers and a queue depth of {@value #DEFAULT_QUEUE_DEPTH}.
+     *
+     * @param codec the codec doing the actual (de)compression
+     * @return a new pipelined codec
+     */
+    public static PipelinedCompress of(ICompress codec) {
+        return of(codec, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Creates a pipelined codec.
+     *
+     * @param codec      the codec doing the actual (de)compression
+     * @param bufferSize the size of the buffers handed between stages
+     * @param queueDepth the number of filled buffers a stage may queue before blocking
+     * @return a new pipelined codec
+     */
+    public static PipelinedCompress of(ICompress codec, int bufferSize, int queueDepth) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+        if (queueDepth <= 0) throw new IllegalArgumentException("Queue depth must be positive");
+        return new PipelinedCompress(codec, bufferSize, queueDepth);
+    }
+
+    public ICompress getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void compress(InputStream is, OutputStream os) throws IOException {
+        // The compress stream owns the destination, so closing it closes os
+        run(is, false, os, true, "compress", (in, out) -> {
+            try (out; OutputStream compressStream = codec.createCompressStream(out)) {
+                in.transferTo(compressStream);
+            }
+        });
+    }
+
+    @Override
+    public void decompress(InputStream is, OutputStream os) throws IOException {
+        // The decompress stream owns the source, so closing it closes is
+        run(is, true, os, false, "decompress", (in, out) -> {
+            try (InputStream decompressStream = codec.createDecompressStream(in); out) {
+                decompressStream.transferTo(out);
+            }
+        });
+    }
+
+    @Override
+    public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return codec.compress(src, dst);
+    }
+
+    @Override
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return codec.decompress(src, dst);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return codec.isAvailable();
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        return codec.createDecompressStream(is);
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) throws IOException {
+        return codec.createCompressStream(os);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return codec.getFileExtension();
+    }
+
+    private void run(InputStream is, boolean closeInput, OutputStream os, boolean closeOutput, String name,
+                     Transform transform) throws IOException {
+        BlockingQueue<Chunk> input = new ArrayBlockingQueue<>(queueDepth + 1);
+        BlockingQueue<Chunk> output = new ArrayBlockingQueue<>(queueDepth + 1);
+        Pipeline pipeline = new Pipeline();
+
+        pipeline.start(name + "-reader", () -> {
+            try {
+                while (true) {
+                    byte[] buffer = buffers.lease();
+                    int n = is.read(buffer);
+                    if (n < 0) {
+                        buffers.release(buffer);
+                        break;
+                    }
+                    if (n > 0) pipeline.put(input, new Chunk(buffer, n));
+                    else buffers.release(buffer);
+                }
+            } finally {
+                if (closeInput) is.close();
+            }
+            pipeline.put(input, EOF);
+        });
+        pipeline.start(name + "-worker", () -> {
+            QueueInputStream in = new QueueInputStream(pipeline, input);
+            transform.apply(in, new QueueOutputStream(pipeline, output));
+            // The codec may stop before the end of the source; keep the reader from blocking on a full queue
+            in.skipRemaining();
+        });
+        pipeline.start(name + "-writer", () -> {
+            try {
+                Chunk chunk;
+                while ((chunk = pipeline.take(output)) != EOF) {
+                    os.write(chunk.data, 0, chunk.length);
+                    buffers.release(chunk.data);
+                }
+                os.flush();
+            } finally {
+                if (closeOutput) os.close();
+            }
+        });
+        pipeline.await();
+    }
+
+    @FunctionalInterface
+    private interface Transform {
+        void apply(InputStream in, OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws IOException;
+    }
+
+    private record Chunk(byte[] data, int length) {
+    }
+
+    /**
+     * Runs the stages and reports the first failure. The stages are not interrupted, since an interrupt closes a
+     * {@link java.nio.channels.FileChannel} blocked in I/O; instead they stop at their next queue operation once
+     * another stage has failed.
+     */
+    private static final class Pipeline {
+        private final Thread[] threads = new Thread[3];
+        private int count;
+        private volatile Throwable failure;
+
+        private synchronized void start(String name, Stage stage) {
+            Thread thread = JVMThread.newThread(() -> {
+                try {
+                    stage.run();
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }, "PipelinedCompress-" + name);
+            threads[count++] = thread;
+            thread.start();
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (failure == null) failure = t;
+        }
+
+        private void put(BlockingQueue<Chunk> queue, Chunk chunk) throws IOException {
+            try {
+                while (!queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) checkFailed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pipeline interrupted");
+            }
+        }
+
+        private Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+            try {
+                Chunk chunk;
+                while ((chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) checkFailed();
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pipeline interrupted");
+            }
+        }
+
+        private void checkFailed() throws IOException {
+            if (failure != null) throw new IOException("Pipeline stopped after another stage failed");
+        }
+
+        private void await() throws IOException {
+            try {
+                for (int i = 0; i < count; i++) threads[i].join();
+            } catch (InterruptedException e) {
+                fail(e);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the pipeline");
+            }
+            Throwable t = failure;
+            if (t == null) return;
+            if (t instanceof IOException io) throw io;
+            if (t instanceof RuntimeException re) throw re;
+            if (t instanceof Error error) throw error;
+            throw new IOException(t);
+        }
+    }
+
+    private final class QueueInputStream extends InputStream {
+        private final Pipeline pipeline;
+        private final BlockingQueue<Chunk> queue;
+        private Chunk chunk;
+        private int position;
+
+        private QueueInputStream(Pipeline pipeline, BlockingQueue<Chunk> queue) {
+            this.pipeline = pipeline;
+            this.queue = queue;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return chunk.data[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk.data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private void skipRemaining() throws IOException {
+            while (fill()) position = chunk.length;
+        }
+
+        private boolean fill() throws IOException {
+            if (chunk == EOF) return false;
+            if (chunk != null && position < chunk.length) return true;
+            if (chunk != null) buffers.release(chunk.data);
+            chunk = pipeline.take(queue);
+            position = 0;
+            return chunk != EOF;
+        }
+    }
+
+    private final class QueueOutputStream extends OutputStream {
+        private final Pipeline pipeline;
+        private final BlockingQueue<Chunk> queue;
+        private byte[] buffer = buffers.lease();
+        private int count;
+        private boolean closed;
+
+        private QueueOutputStream(Pipeline pipeline, BlockingQueue<Chunk> queue) {
+            this.pipeline = pipeline;
+            this.queue = queue;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            buffer[count++] = (byte) b;
+            if (count == buffer.length) push();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) push();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            if (count > 0) push();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            if (count > 0) push();
+            closed = true;
+            buffers.release(buffer);
+            buffer = null;
+            pipeline.put(queue, EOF);
+        }
+
+        private void push() throws IOException {
+            pipeline.put(queue, new Chunk(buffer, count));
+            buffer = buffers.lease();
+            count = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package one.pkg.tinyutils.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A seekable container that splits the data into independently compressed chunks and appends an offset index.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>
+ * header  int magic, byte version
+ * chunk*  int compressedLength, int uncompressedLength, byte[compressedLength] data
+ * end     int -1
+ * index   (long dataOffset, int compressedLength, int uncompressedLength) per chunk
+ * footer  long indexOffset, int chunkCount, int magic
+ * </pre>
+ * Every chunk is compressed with the wrapped codec on its own, so {@link SeekableCompressedChannel} can jump to
+ * any uncompressed position by decompressing a single chunk. The streams of this codec read and write the
+ * container sequentially and do not need the index.
+ */
+public class SeekableCompress implements ICompress {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    static final int MAGIC = 0x54534B43;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5;
+    static final int FOOTER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int CHUNK_HEADER_SIZE = 8;
+
+    private final ICompress codec;
+    private final int chunkSize;
+
+    private SeekableCompress(ICompress codec, int chunkSize) {
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Creates a seekable container compressing chunks of {@value #DEFAULT_CHUNK_SIZE} bytes with the given codec.
+     *
+     * @param codec the codec compressing every chunk
+     * @return a new seekable codec
+     */
+    public static SeekableCompress of(ICompress codec) {
+        return of(codec, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a seekable container compressing chunks of the given size with the given codec.
+     * <p>
+     * Smaller chunks make random reads cheaper at the cost of compression ratio.
+     *
+     * @param codec     the codec compressing every chunk
+     * @param chunkSize the number of uncompressed bytes per chunk
+     * @return a new seekable codec
+     */
+    public static SeekableCompress of(ICompress codec, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        return new SeekableCompress(codec, chunkSize);
+    }
+
+    public ICompress getCodec() {
+        return codec;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return codec.isAvailable();
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        checkHeader(in.readInt(), in.readByte());
+        return new ChunkedInputStream(in);
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) {
+        return new ChunkedOutputStream(os);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".seek" + codec.getFileExtension();
+    }
+
+    static void checkHeader(int magic, int version) throws IOException {
+        if (magic != MAGIC) throw new IOException("Not a seekable compressed stream");
+        if (version != VERSION) throw new IOException("Unsupported seekable compressed stream version: " + version);
+    }
+
+    byte[] decompressChunk(byte[] compressed, int uncompressedLength) throws IOException {
+        byte[] data = new byte[uncompressedLength];
+        try (InputStream in = codec.createDecompressStream(new ByteArrayInputStream(compressed))) {
+            int n = in.readNBytes(data, 0, uncompressedLength);
+            if (n != uncompressedLength) throw new EOFException("Truncated chunk: expected " + uncompressedLength + " bytes, got " + n);
+        }
+        return data;
+    }
+
+    private final class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean finished;
+
+        private ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == chunk.length) {
+                if (finished) return false;
+                int compressedLength = in.readInt();
+                if (compressedLength == -1) {
+                    finished = true;
+                    return false;
+                }
+                int uncompressedLength = in.readInt();
+                if (compressedLength < 0 || uncompressedLength < 0) throw new IOException("Corrupt chunk header");
+                byte[] compressed = new byte[compressedLength];
+                in.readFully(compressed);
+                chunk = decompressChunk(compressed, uncompressedLength);
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private final class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private final byte[] buffer = new byte[chunkSize];
+        private int count;
+        private int chunks;
+        private long written;
+        private boolean headerWritten;
+        private boolean closed;
+
+        private ChunkedOutputStream(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            buffer[count++] = (byte) b;
+            if (count == buffer.length) writeChunk();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) writeChunk();
+            }
+        }
+
+        /**
+         * Flushes the underlying stream. Buffered data is not cut into a short chunk,
+         * so only complete chunks reach the output.
+         */
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try (out) {
+                if (count > 0) writeChunk();
+                writeHeader();
+                long indexOffset = written + 4;
+                out.writeInt(-1);
+                index.writeTo(out);
+                out.writeLong(indexOffset);
+                out.writeInt(chunks);
+                out.writeInt(MAGIC);
+                out.flush();
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            if (headerWritten) return;
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            written = HEADER_SIZE;
+            headerWritten = true;
+        }
+
+        private void writeChunk() throws IOException {
+            writeHeader();
+            compressed.reset();
+            try (OutputStream os = codec.createCompressStream(compressed)) {
+                os.write(buffer, 0, count);
+            }
+
+            out.writeInt(compressed.size());
+            out.writeInt(count);
+            compressed.writeTo(out);
+
+            indexOut.writeLong(written + CHUNK_HEADER_SIZE);
+            indexOut.writeInt(compressed.size());
+            indexOut.writeInt(count);
+
+            written += CHUNK_HEADER_SIZE + compressed.size();
+            chunks++;
+            count = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+        }
+    }
+}
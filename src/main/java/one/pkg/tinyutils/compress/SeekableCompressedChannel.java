@@ -0,0 +1,213 @@
+package one.pkg.tinyutils.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A read-only channel over the uncompressed content of a {@link SeekableCompress} container.
+ * <p>
+ * The chunk index is loaded once when the channel is opened; a read then decompresses only the chunks
+ * covering the requested range. {@link #read(ByteBuffer, long)} does not touch the channel position and
+ * may be called from any number of threads at once, while {@link #read(ByteBuffer)} and {@link #position(long)}
+ * behave like a regular {@link SeekableByteChannel} and are serialized. Recently used chunks are kept in a
+ * small cache so sequential and nearby reads do not decompress the same chunk again.
+ */
+public final class SeekableCompressedChannel implements SeekableByteChannel {
+    private static final int CACHE_SLOTS = 8;
+
+    private final FileChannel channel;
+    private final SeekableCompress format;
+    private final long[] dataOffsets;
+    private final int[] compressedLengths;
+    private final long[] starts;
+    private final AtomicReferenceArray<Chunk> cache = new AtomicReferenceArray<>(CACHE_SLOTS);
+    private long position;
+    private volatile boolean open = true;
+
+    private SeekableCompressedChannel(FileChannel channel, SeekableCompress format) throws IOException {
+        this.channel = channel;
+        this.format = format;
+
+        long size = channel.size();
+        if (size < SeekableCompress.HEADER_SIZE + 4 + SeekableCompress.FOOTER_SIZE)
+            throw new IOException("Not a seekable compressed file");
+        ByteBuffer header = readFully(ByteBuffer.allocate(SeekableCompress.HEADER_SIZE), 0);
+        SeekableCompress.checkHeader(header.getInt(), header.get());
+
+        ByteBuffer footer = readFully(ByteBuffer.allocate(SeekableCompress.FOOTER_SIZE), size - SeekableCompress.FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        int count = footer.getInt();
+        if (footer.getInt() != SeekableCompress.MAGIC || count < 0
+                || indexOffset + (long) count * SeekableCompress.INDEX_ENTRY_SIZE != size - SeekableCompress.FOOTER_SIZE)
+            throw new IOException("Corrupt seekable compressed index");
+
+        ByteBuffer index = readFully(ByteBuffer.allocate(count * SeekableCompress.INDEX_ENTRY_SIZE), indexOffset);
+        this.dataOffsets = new long[count];
+        this.compressedLengths = new int[count];
+        this.starts = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            dataOffsets[i] = index.getLong();
+            compressedLengths[i] = index.getInt();
+            starts[i + 1] = starts[i] + index.getInt();
+        }
+    }
+
+    /**
+     * Opens a seekable compressed file for reading.
+     *
+     * @param path   the container file
+     * @param format the container codec the file was written with
+     * @return a channel over the uncompressed content
+     * @throws IOException if the file cannot be opened or is not a seekable container
+     */
+    public static SeekableCompressedChannel open(Path path, SeekableCompress format) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SeekableCompressedChannel(channel, format);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps an open file channel. The channel is closed together with the returned channel.
+     *
+     * @param channel the channel positioned anywhere over the container file
+     * @param format  the container codec the file was written with
+     * @return a channel over the uncompressed content
+     * @throws IOException if the channel does not contain a seekable container
+     */
+    public static SeekableCompressedChannel open(FileChannel channel, SeekableCompress format) throws IOException {
+        return new SeekableCompressedChannel(channel, format);
+    }
+
+    /**
+     * Reads uncompressed bytes starting at the given position without changing the channel position.
+     * This method is safe to call concurrently.
+     *
+     * @param dst      the buffer to read into
+     * @param position the uncompressed position to read from
+     * @return the number of bytes read, or {@code -1} if the position is at or past the end
+     * @throws IOException if the container cannot be read or a chunk fails to decompress
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position < 0) throw new IllegalArgumentException("Negative position");
+        ensureOpen();
+        long size = size();
+        if (position >= size) return -1;
+
+        int total = 0;
+        int chunk = chunkAt(position);
+        while (dst.hasRemaining() && position < size) {
+            byte[] data = chunk(chunk);
+            int offset = (int) (position - starts[chunk]);
+            int n = Math.min(dst.remaining(), data.length - offset);
+            dst.put(data, offset, n);
+            total += n;
+            position += n;
+            chunk++;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) position += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableCompressedChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * Returns the uncompressed size of the content.
+     */
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return starts[starts.length - 1];
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    public int getChunkCount() {
+        return dataOffsets.length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        for (int i = 0; i < CACHE_SLOTS; i++) cache.set(i, null);
+        channel.close();
+    }
+
+    private int chunkAt(long position) {
+        int i = Arrays.binarySearch(starts, position);
+        if (i < 0) return -i - 2;
+        // Skip empty chunks sharing the same start
+        while (i + 1 < starts.length && starts[i + 1] == position) i++;
+        return i;
+    }
+
+    private byte[] chunk(int index) throws IOException {
+        int slot = index % CACHE_SLOTS;
+        Chunk cached = cache.get(slot);
+        if (cached != null && cached.index == index) return cached.data;
+
+        ByteBuffer compressed = readFully(ByteBuffer.allocate(compressedLengths[index]), dataOffsets[index]);
+        byte[] data = format.decompressChunk(compressed.array(), (int) (starts[index + 1] - starts[index]));
+        cache.set(slot, new Chunk(index, data));
+        return data;
+    }
+
+    private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException("Unexpected end of seekable compressed file");
+            position += n;
+        }
+        return buffer.flip();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    private record Chunk(int index, byte[] data) {
+    }
+}
@@ -0,0 +1,259 @@
+package one.pkg.tinyutils.compress;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Deflate and GZIP streams that lease their {@link Deflater}/{@link Inflater} from a {@link ContextPool}
+ * and hand it back on close, instead of allocating and ending a native context per stream.
+ * <p>
+ * The GZIP variants mirror {@link GZIPOutputStream} and {@link GZIPInputStream}, which always create
+ * their own context and therefore cannot be pooled.
+ */
+final class ZlibStreams {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private ZlibStreams() {
+    }
+
+    static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private final ContextPool<Deflater> pool;
+        private boolean released;
+
+        PooledDeflaterOutputStream(OutputStream out, ContextPool<Deflater> pool, int level) {
+            this(out, pool, pool.lease(), level);
+        }
+
+        private PooledDeflaterOutputStream(OutputStream out, ContextPool<Deflater> pool, Deflater deflater, int level) {
+            super(out, deflater, ICompress.BUFFER_SIZE);
+            this.pool = pool;
+            deflater.setLevel(level);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            super.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            ensureOpen();
+            super.finish();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            if (!released) {
+                released = true;
+                pool.release(def);
+            }
+        }
+
+        /**
+         * Unlike a stream with its own deflater, the released one may already be leased to another stream, so a
+         * write after close has to be rejected here instead of corrupting that stream.
+         */
+        void ensureOpen() throws IOException {
+            if (released) throw new IOException("Stream closed");
+        }
+    }
+
+    static final class PooledGZIPOutputStream extends PooledDeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+
+        PooledGZIPOutputStream(OutputStream out, ContextPool<Deflater> pool, int level) throws IOException {
+            super(out, pool, level);
+            try {
+                out.write(GZIP_HEADER);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            ensureOpen();
+            if (def.finished()) return;
+            def.finish();
+            while (!def.finished()) {
+                int len = def.deflate(buf, 0, buf.length);
+                if (len > 0) out.write(buf, 0, len);
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) def.getBytesRead());
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+            out.write(value >>> 16);
+            out.write(value >>> 24);
+        }
+    }
+
+    static class PooledInflaterInputStream extends InflaterInputStream {
+        private final ContextPool<Inflater> pool;
+        private boolean released;
+
+        PooledInflaterInputStream(InputStream in, ContextPool<Inflater> pool) {
+            super(in, pool.lease(), ICompress.BUFFER_SIZE);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.release(inf);
+                }
+            }
+        }
+    }
+
+    static final class PooledGZIPInputStream extends PooledInflaterInputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean eos;
+
+        PooledGZIPInputStream(InputStream in, ContextPool<Inflater> pool) throws IOException {
+            super(in, pool);
+            try {
+                readHeader(in);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eos) return -1;
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                if (readTrailer()) eos = true;
+                else return read(b, off, len);
+            } else {
+                crc.update(b, off, n);
+            }
+            return n;
+        }
+
+        private int readHeader(InputStream source) throws IOException {
+            CheckedInputStream in = new CheckedInputStream(source, crc);
+            crc.reset();
+            if (readUShort(in) != GZIP_MAGIC) throw new ZipException("Not in GZIP format");
+            if (readUByte(in) != Deflater.DEFLATED) throw new ZipException("Unsupported compression method");
+            int flags = readUByte(in);
+            skipBytes(in, 6);
+            int n = 10;
+            if ((flags & FEXTRA) == FEXTRA) {
+                int extra = readUShort(in);
+                skipBytes(in, extra);
+                n += extra + 2;
+            }
+            if ((flags & FNAME) == FNAME) {
+                do {
+                    n++;
+                } while (readUByte(in) != 0);
+            }
+            if ((flags & FCOMMENT) == FCOMMENT) {
+                do {
+                    n++;
+                } while (readUByte(in) != 0);
+            }
+            if ((flags & FHCRC) == FHCRC) {
+                int expected = (int) crc.getValue() & 0xffff;
+                if (readUShort(in) != expected) throw new ZipException("Corrupt GZIP header");
+                n += 2;
+            }
+            crc.reset();
+            return n;
+        }
+
+        private boolean readTrailer() throws IOException {
+            InputStream source = this.in;
+            int remaining = inf.getRemaining();
+            if (remaining > 0) {
+                source = new SequenceInputStream(new ByteArrayInputStream(buf, len - remaining, remaining),
+                        new FilterInputStream(source) {
+                            @Override
+                            public void close() {
+                            }
+                        });
+            }
+            if (readUInt(source) != crc.getValue() || readUInt(source) != (inf.getBytesWritten() & 0xffffffffL))
+                throw new ZipException("Corrupt GZIP trailer");
+
+            if (this.in.available() > 0 || remaining > 26) {
+                int consumed = 8;
+                try {
+                    consumed += readHeader(source);
+                } catch (IOException e) {
+                    return true;
+                }
+                inf.reset();
+                if (remaining > consumed) inf.setInput(buf, len - remaining + consumed, remaining - consumed);
+                return false;
+            }
+            return true;
+        }
+
+        private static long readUInt(InputStream in) throws IOException {
+            long low = readUShort(in);
+            return ((long) readUShort(in) << 16) | low;
+        }
+
+        private static int readUShort(InputStream in) throws IOException {
+            int low = readUByte(in);
+            return (readUByte(in) << 8) | low;
+        }
+
+        private static int readUByte(InputStream in) throws IOException {
+            int b = in.read();
+            if (b == -1) throw new EOFException();
+            return b;
+        }
+
+        private static void skipBytes(InputStream in, int n) throws IOException {
+            while (n > 0) {
+                if (in.read() == -1) throw new EOFException();
+                n--;
+            }
+        }
+    }
+}
@@ -1,41 +1,235 @@
 package one.pkg.tinyutils.compress;
 
 import one.pkg.tinyutils.Reflect;
+import one.pkg.tinyutils.data.Validate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 
 public class ZstdCompress implements ICompress {
-    private static final ICompress INSTANCE = new ZstdCompress();
-    private final boolean hasDependency = Reflect.hasClass("com.github.luben.zstd.ZstdDecompressCtx");
+    public static final int DEFAULT_LEVEL = 3;
+    public static final int MAX_LEVEL = 22;
+    private static final boolean hasDependency = Reflect.hasClass("com.github.luben.zstd.ZstdDecompressCtx");
+    private static final ZstdCompress INSTANCE = new ZstdCompress(null, DEFAULT_LEVEL);
+    private final @Nullable Dictionary dictionary;
+    private final int level;
+    private volatile Contexts contexts;
 
-    private ZstdCompress() {
+    private ZstdCompress(@Nullable Dictionary dictionary, int level) {
+        this.dictionary = dictionary;
+        this.level = level;
     }
 
     public static ICompress getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Creates a codec with the given compression level instead of the zstd default ({@value #DEFAULT_LEVEL}).
+     *
+     * @param level the compression level, up to {@value #MAX_LEVEL}; negative levels trade ratio for speed
+     * @return a zstd codec using the given level
+     */
+    public static ICompress withLevel(int level) {
+        checkLevel(level);
+        return level == DEFAULT_LEVEL ? INSTANCE : new ZstdCompress(null, level);
+    }
+
+    /**
+     * Creates a codec that compresses and decompresses with a shared dictionary.
+     * <p>
+     * The dictionary is prepared once and reused by every stream created by the returned instance,
+     * so it is intended to be created once and kept around. Data compressed with a dictionary can only be
+     * decompressed by an instance created from the same dictionary.
+     *
+     * @param dictionary the raw dictionary content, usually produced by {@link #trainDictionary(Collection, int)}
+     * @return a dictionary-aware {@link ICompress} instance
+     * @throws IOException if the zstd-jni library is not present on the classpath
+     */
+    public static ICompress withDictionary(@NotNull byte[] dictionary) throws IOException {
+        return withDictionary(dictionary, DEFAULT_LEVEL);
+    }
+
+    /**
+     * Creates a codec that compresses with a shared dictionary at the given compression level.
+     *
+     * @param dictionary the raw dictionary content
+     * @param level      the compression level, up to {@value #MAX_LEVEL}
+     * @return a dictionary-aware {@link ICompress} instance
+     * @throws IOException if the zstd-jni library is not present on the classpath
+     * @see #withDictionary(byte[])
+     */
+    public static ICompress withDictionary(@NotNull byte[] dictionary, int level) throws IOException {
+        Validate.notNull(dictionary, "Dictionary must not be null");
+        checkLevel(level);
+        INSTANCE.checkDependencyPresent("ZSTD dictionary");
+        return new ZstdCompress(new Dictionary(dictionary, level), level);
+    }
+
+    /**
+     * Trains a dictionary from a corpus of sample payloads.
+     * <p>
+     * Samples should be representative of the payloads that will be compressed later; a few thousand
+     * small samples usually give a good dictionary.
+     *
+     * @param samples        the sample payloads to train from
+     * @param dictionarySize the maximum size of the resulting dictionary in bytes
+     * @return the trained dictionary content, suitable for {@link #withDictionary(byte[])}
+     * @throws IOException if the zstd-jni library is not present on the classpath or training fails
+     */
+    public static byte[] trainDictionary(@NotNull Collection<byte[]> samples, int dictionarySize) throws IOException {
+        Validate.notNull(samples, "Samples must not be null");
+        if (dictionarySize <= 0) throw new IllegalArgumentException("Dictionary size must be positive");
+        INSTANCE.checkDependencyPresent("ZSTD dictionary training");
+
+        long sampleSize = 0;
+        for (byte[] sample : samples) sampleSize += sample.length;
+        if (sampleSize == 0) throw new IllegalArgumentException("Samples must not be empty");
+        if (sampleSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Samples are too large to train from");
+
+        var trainer = new com.github.luben.zstd.ZstdDictTrainer((int) sampleSize, dictionarySize);
+        for (byte[] sample : samples) trainer.addSample(sample);
+        try {
+            return trainer.trainSamples();
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to train ZSTD dictionary", e);
+        }
+    }
+
+    private static void checkLevel(int level) {
+        if (level > MAX_LEVEL) throw new IllegalArgumentException("ZSTD level must not exceed " + MAX_LEVEL);
+    }
+
     protected void checkDependencyPresent(String operation) throws IOException {
         if (!hasDependency)
             throw new IOException(operation + " requires the 'com.github.luben:zstd-jni' library to be present on the classpath");
     }
 
+    @Override
+    public boolean isAvailable() {
+        return hasDependency;
+    }
+
     @Override
     public InputStream createDecompressStream(InputStream is) throws IOException {
         checkDependencyPresent("ZSTD decompression");
-        return new com.github.luben.zstd.ZstdInputStream(is);
+        return Streams.decompress(is, dictionary);
     }
 
     @Override
     public OutputStream createCompressStream(OutputStream os) throws IOException {
         checkDependencyPresent("ZSTD compression");
-        return new com.github.luben.zstd.ZstdOutputStream(os);
+        return Streams.compress(os, dictionary, level);
+    }
+
+    /**
+     * Compresses into a single zstd frame using a pooled native context.
+     * Direct buffers are handed to zstd without copying; heap buffers are compressed from their backing arrays.
+     */
+    @Override
+    public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        checkDependencyPresent("ZSTD compression");
+        if (src.isDirect() != dst.isDirect() || (!src.isDirect() && !(src.hasArray() && dst.hasArray())))
+            return ICompress.super.compress(src, dst);
+
+        ContextPool<com.github.luben.zstd.ZstdCompressCtx> pool = contexts().compress;
+        var ctx = pool.lease();
+        try {
+            ctx.setLevel(level);
+            if (dictionary != null) ctx.loadDict(dictionary.compress);
+            int written = src.isDirect()
+                    ? ctx.compressDirectByteBuffer(dst, dst.position(), dst.remaining(), src, src.position(), src.remaining())
+                    : ctx.compressByteArray(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining(),
+                    src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            dst.position(dst.position() + written);
+            return written;
+        } catch (RuntimeException e) {
+            throw new IOException("ZSTD compression failed", e);
+        } finally {
+            pool.release(ctx);
+        }
+    }
+
+    /**
+     * Decompresses complete zstd frames using a pooled native context.
+     * Direct buffers are handed to zstd without copying; heap buffers are decompressed into their backing arrays.
+     */
+    @Override
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        checkDependencyPresent("ZSTD decompression");
+        if (src.isDirect() != dst.isDirect() || (!src.isDirect() && !(src.hasArray() && dst.hasArray())))
+            return ICompress.super.decompress(src, dst);
+
+        ContextPool<com.github.luben.zstd.ZstdDecompressCtx> pool = contexts().decompress;
+        var ctx = pool.lease();
+        try {
+            if (dictionary != null) ctx.loadDict(dictionary.decompress);
+            int written = src.isDirect()
+                    ? ctx.decompressDirectByteBuffer(dst, dst.position(), dst.remaining(), src, src.position(), src.remaining())
+                    : ctx.decompressByteArray(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining(),
+                    src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            dst.position(dst.position() + written);
+            return written;
+        } catch (RuntimeException e) {
+            throw new IOException("ZSTD decompression failed", e);
+        } finally {
+            pool.release(ctx);
+        }
     }
 
     @Override
     public String getFileExtension() {
         return ".zst";
     }
+
+    private Contexts contexts() {
+        Contexts c = contexts;
+        if (c == null) {
+            synchronized (this) {
+                c = contexts;
+                if (c == null) contexts = c = new Contexts();
+            }
+        }
+        return c;
+    }
+
+    // Kept in a nested class so ZstdCompress itself can be loaded and verified without zstd-jni.
+    private static final class Streams {
+        private static InputStream decompress(InputStream is, @Nullable Dictionary dictionary) throws IOException {
+            var stream = new com.github.luben.zstd.ZstdInputStreamNoFinalizer(is, com.github.luben.zstd.RecyclingBufferPool.INSTANCE);
+            if (dictionary != null) stream.setDict(dictionary.decompress);
+            return stream;
+        }
+
+        private static OutputStream compress(OutputStream os, @Nullable Dictionary dictionary, int level) throws IOException {
+            var stream = new com.github.luben.zstd.ZstdOutputStreamNoFinalizer(os, com.github.luben.zstd.RecyclingBufferPool.INSTANCE);
+            stream.setLevel(level);
+            if (dictionary != null) stream.setDict(dictionary.compress);
+            return stream;
+        }
+    }
+
+    private static final class Dictionary {
+        private final com.github.luben.zstd.ZstdDictCompress compress;
+        private final com.github.luben.zstd.ZstdDictDecompress decompress;
+
+        private Dictionary(byte[] dictionary, int level) {
+            this.compress = new com.github.luben.zstd.ZstdDictCompress(dictionary, level);
+            this.decompress = new com.github.luben.zstd.ZstdDictDecompress(dictionary);
+        }
+    }
+
+    private static final class Contexts {
+        private final ContextPool<com.github.luben.zstd.ZstdCompressCtx> compress = new ContextPool<>(ContextPool.defaultCapacity(),
+                com.github.luben.zstd.ZstdCompressCtx::new, com.github.luben.zstd.ZstdCompressCtx::reset, com.github.luben.zstd.ZstdCompressCtx::close);
+        private final ContextPool<com.github.luben.zstd.ZstdDecompressCtx> decompress = new ContextPool<>(ContextPool.defaultCapacity(),
+                com.github.luben.zstd.ZstdDecompressCtx::new, com.github.luben.zstd.ZstdDecompressCtx::reset, com.github.luben.zstd.ZstdDecompressCtx::close);
+    }
 }
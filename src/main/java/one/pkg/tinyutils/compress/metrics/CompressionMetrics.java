@@ -0,0 +1,158 @@
+package one.pkg.tinyutils.compress.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of compression metrics keyed by codec, call site and operation.
+ * <p>
+ * Recording is lock-free and cheap enough for hot paths. Numbers can be pulled with {@link #snapshot()} or
+ * published over JMX with {@link #register(String)}. Most code uses the {@link #global()} registry, which
+ * {@link MeteredCompress} records into by default.
+ */
+public final class CompressionMetrics implements CompressionMetricsMXBean {
+    public static final String JMX_DOMAIN = "one.pkg.tinyutils";
+    private static final CompressionMetrics GLOBAL = new CompressionMetrics();
+
+    private final ConcurrentHashMap<Key, Recorder> recorders = new ConcurrentHashMap<>();
+
+    public static CompressionMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records one finished operation.
+     *
+     * @param codec     the codec name
+     * @param callSite  the call site name
+     * @param operation {@code "compress"} or {@code "decompress"}
+     * @param bytesIn   the number of bytes consumed
+     * @param bytesOut  the number of bytes produced
+     * @param nanos     the wall time of the operation
+     * @param failed    whether the operation threw
+     */
+    public void record(String codec, String callSite, String operation, long bytesIn, long bytesOut, long nanos, boolean failed) {
+        Recorder recorder = recorders.computeIfAbsent(new Key(codec, callSite, operation), k -> new Recorder());
+        recorder.calls.increment();
+        if (failed) recorder.failures.increment();
+        recorder.bytesIn.add(bytesIn);
+        recorder.bytesOut.add(bytesOut);
+        recorder.nanos.add(nanos);
+        if (!failed && nanos > 0) {
+            long uncompressed = MeteredCompress.COMPRESS.equals(operation) ? bytesIn : bytesOut;
+            recorder.histogram.incrementAndGet(CompressionStats.bucketOf(uncompressed * 1e9 / nanos));
+        }
+    }
+
+    /**
+     * Returns the current numbers of every codec, call site and operation seen so far.
+     *
+     * @return the snapshots, sorted by codec, call site and operation
+     */
+    public @NotNull List<CompressionStats> snapshot() {
+        List<CompressionStats> stats = new ArrayList<>(recorders.size());
+        recorders.forEach((key, recorder) -> stats.add(recorder.snapshot(key)));
+        stats.sort(Comparator.comparing(CompressionStats::getCodec)
+                .thenComparing(CompressionStats::getCallSite)
+                .thenComparing(CompressionStats::getOperation));
+        return stats;
+    }
+
+    @Override
+    public CompressionStats[] getStats() {
+        return snapshot().toArray(new CompressionStats[0]);
+    }
+
+    @Override
+    public long getTotalUncompressedBytes() {
+        return snapshot().stream().mapToLong(CompressionStats::getUncompressedBytes).sum();
+    }
+
+    @Override
+    public long getTotalCompressedBytes() {
+        return snapshot().stream().mapToLong(CompressionStats::getCompressedBytes).sum();
+    }
+
+    @Override
+    public long getTotalTimeNanos() {
+        return snapshot().stream().mapToLong(CompressionStats::getTimeNanos).sum();
+    }
+
+    /**
+     * Discards all recorded numbers.
+     */
+    @Override
+    public void reset() {
+        recorders.clear();
+    }
+
+    /**
+     * Registers this registry with the platform MBean server as
+     * {@code one.pkg.tinyutils:type=Compression,name=<name>}.
+     *
+     * @param name the name distinguishing this registry
+     * @return the object name the registry was registered under
+     * @throws IllegalStateException if the name is already registered or registration fails
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = objectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("Compression metrics '" + name + "' are already registered", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register compression metrics '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Removes a registry registered with {@link #register(String)}; does nothing if none is registered under the name.
+     *
+     * @param name the name the registry was registered under
+     */
+    public static void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (InstanceNotFoundException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister compression metrics '" + name + "'", e);
+        }
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Compression,name=" + ObjectName.quote(name));
+    }
+
+    private record Key(String codec, String callSite, String operation) {
+    }
+
+    private static final class Recorder {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(CompressionStats.HISTOGRAM_BUCKETS);
+
+        private CompressionStats snapshot(Key key) {
+            long[] buckets = new long[histogram.length()];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = histogram.get(i);
+            return new CompressionStats(key.codec, key.callSite, key.operation, calls.sum(), failures.sum(),
+                    bytesIn.sum(), bytesOut.sum(), nanos.sum(), buckets);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package one.pkg.tinyutils.compress.metrics;
+
+/**
+ * JMX view of a {@link CompressionMetrics} registry.
+ */
+public interface CompressionMetricsMXBean {
+    CompressionStats[] getStats();
+
+    long getTotalUncompressedBytes();
+
+    long getTotalCompressedBytes();
+
+    long getTotalTimeNanos();
+
+    void reset();
+}
@@ -0,0 +1,126 @@
+package one.pkg.tinyutils.compress.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * An immutable snapshot of the metrics recorded for one codec, call site and operation.
+ * <p>
+ * Byte counts are named after the data the operation consumed and produced: for compression {@code bytesIn}
+ * is uncompressed and {@code bytesOut} compressed, for decompression the other way around.
+ */
+public final class CompressionStats {
+    /**
+     * The number of throughput histogram buckets. Bucket {@code 0} counts calls under 1 MiB/s, bucket {@code i}
+     * calls from {@code 2^(i-1)} up to {@code 2^i} MiB/s, and the last bucket everything faster.
+     */
+    public static final int HISTOGRAM_BUCKETS = 16;
+
+    private final String codec;
+    private final String callSite;
+    private final String operation;
+    private final long calls;
+    private final long failures;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long timeNanos;
+    private final long[] throughputHistogram;
+
+    @ConstructorParameters({"codec", "callSite", "operation", "calls", "failures", "bytesIn", "bytesOut", "timeNanos", "throughputHistogram"})
+    public CompressionStats(String codec, String callSite, String operation, long calls, long failures,
+                            long bytesIn, long bytesOut, long timeNanos, long[] throughputHistogram) {
+        this.codec = codec;
+        this.callSite = callSite;
+        this.operation = operation;
+        this.calls = calls;
+        this.failures = failures;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.timeNanos = timeNanos;
+        this.throughputHistogram = throughputHistogram.clone();
+    }
+
+    /**
+     * Returns the histogram bucket for the given throughput.
+     *
+     * @param bytesPerSecond the throughput measured on uncompressed bytes
+     * @return the bucket index, between {@code 0} and {@code HISTOGRAM_BUCKETS - 1}
+     */
+    public static int bucketOf(double bytesPerSecond) {
+        double mibPerSecond = bytesPerSecond / (1024 * 1024);
+        if (!(mibPerSecond >= 1)) return 0;
+        int bucket = 64 - Long.numberOfLeadingZeros((long) mibPerSecond);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public String getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * @return {@code "compress"} or {@code "decompress"}
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public long[] getThroughputHistogram() {
+        return throughputHistogram.clone();
+    }
+
+    public long getUncompressedBytes() {
+        return isCompress() ? bytesIn : bytesOut;
+    }
+
+    public long getCompressedBytes() {
+        return isCompress() ? bytesOut : bytesIn;
+    }
+
+    /**
+     * @return compressed size divided by uncompressed size, or {@code 0} if nothing was processed
+     */
+    public double getCompressionRatio() {
+        long uncompressed = getUncompressedBytes();
+        return uncompressed == 0 ? 0 : (double) getCompressedBytes() / uncompressed;
+    }
+
+    /**
+     * @return the average throughput over all calls in uncompressed MiB per second
+     */
+    public double getThroughputMiBPerSecond() {
+        return timeNanos == 0 ? 0 : getUncompressedBytes() / (1024.0 * 1024.0) / (timeNanos / 1e9);
+    }
+
+    private boolean isCompress() {
+        return MeteredCompress.COMPRESS.equals(operation);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s] %s: calls=%d failures=%d in=%d out=%d ratio=%.3f throughput=%.1f MiB/s",
+                codec, callSite, operation, calls, failures, bytesIn, bytesOut, getCompressionRatio(), getThroughputMiBPerSecond());
+    }
+}
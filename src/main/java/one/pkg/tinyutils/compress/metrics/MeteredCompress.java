@@ -0,0 +1,256 @@
+package one.pkg.tinyutils.compress.metrics;
+
+import one.pkg.tinyutils.compress.ICompress;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link ICompress} decorator that records bytes in and out, wall time, failures and throughput of every
+ * operation into a {@link CompressionMetrics} registry.
+ * <p>
+ * The whole-stream and {@link ByteBuffer} methods are timed around the call to the wrapped codec, so its own
+ * fast paths are kept. Streams from {@link #createCompressStream(OutputStream)} and
+ * {@link #createDecompressStream(InputStream)} are recorded when they are closed and their time covers
+ * everything between creation and close, including time the caller spends between reads or writes.
+ */
+public class MeteredCompress implements ICompress {
+    static final String COMPRESS = "compress";
+    static final String DECOMPRESS = "decompress";
+
+    private final ICompress codec;
+    private final String codecName;
+    private final String callSite;
+    private final CompressionMetrics metrics;
+
+    private MeteredCompress(ICompress codec, String codecName, String callSite, CompressionMetrics metrics) {
+        this.codec = codec;
+        this.codecName = codecName;
+        this.callSite = callSite;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Wraps a codec, recording into the global registry under the call site {@code "default"}.
+     *
+     * @param codec the codec to meter
+     * @return the metered codec
+     */
+    public static MeteredCompress of(ICompress codec) {
+        return of(codec, "default");
+    }
+
+    /**
+     * Wraps a codec, recording into the global registry.
+     *
+     * @param codec    the codec to meter
+     * @param callSite a name identifying where the codec is used, e.g. {@code "world-save"}
+     * @return the metered codec
+     */
+    public static MeteredCompress of(ICompress codec, String callSite) {
+        return of(codec, nameOf(codec), callSite, CompressionMetrics.global());
+    }
+
+    /**
+     * Wraps a codec.
+     *
+     * @param codec     the codec to meter
+     * @param codecName the name the codec is recorded under
+     * @param callSite  a name identifying where the codec is used
+     * @param metrics   the registry to record into
+     * @return the metered codec
+     */
+    public static MeteredCompress of(ICompress codec, String codecName, String callSite, CompressionMetrics metrics) {
+        return new MeteredCompress(codec, codecName, callSite, metrics);
+    }
+
+    private static String nameOf(ICompress codec) {
+        if (codec instanceof Enum<?> e) return e.name();
+        String name = codec.getClass().getSimpleName();
+        return name.isEmpty() ? codec.getClass().getName() : name;
+    }
+
+    public ICompress getCodec() {
+        return codec;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public String getCallSite() {
+        return callSite;
+    }
+
+    @Override
+    public void compress(InputStream is, OutputStream os) throws IOException {
+        CountingInputStream in = new CountingInputStream(is);
+        CountingOutputStream out = new CountingOutputStream(os);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            codec.compress(in, out);
+            failed = false;
+        } finally {
+            metrics.record(codecName, callSite, COMPRESS, in.count, out.count, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void decompress(InputStream is, OutputStream os) throws IOException {
+        CountingInputStream in = new CountingInputStream(is);
+        CountingOutputStream out = new CountingOutputStream(os);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            codec.decompress(in, out);
+            failed = false;
+        } finally {
+            metrics.record(codecName, callSite, DECOMPRESS, in.count, out.count, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int position = src.position();
+        long start = System.nanoTime();
+        int written = 0;
+        boolean failed = true;
+        try {
+            written = codec.compress(src, dst);
+            failed = false;
+            return written;
+        } finally {
+            metrics.record(codecName, callSite, COMPRESS, src.position() - position, written, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int position = src.position();
+        long start = System.nanoTime();
+        int written = 0;
+        boolean failed = true;
+        try {
+            written = codec.decompress(src, dst);
+            failed = false;
+            return written;
+        } finally {
+            metrics.record(codecName, callSite, DECOMPRESS, src.position() - position, written, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return codec.isAvailable();
+    }
+
+    @Override
+    public InputStream createDecompressStream(InputStream is) throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream compressed = new CountingInputStream(is);
+        InputStream decompressed = codec.createDecompressStream(compressed);
+        return new CountingInputStream(decompressed) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                boolean failed = true;
+                try {
+                    super.close();
+                    failed = false;
+                } finally {
+                    metrics.record(codecName, callSite, DECOMPRESS, compressed.count, count, System.nanoTime() - start, failed);
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream createCompressStream(OutputStream os) throws IOException {
+        long start = System.nanoTime();
+        CountingOutputStream compressed = new CountingOutputStream(os);
+        OutputStream compressStream = codec.createCompressStream(compressed);
+        return new CountingOutputStream(compressStream) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                boolean failed = true;
+                try {
+                    super.close();
+                    failed = false;
+                } finally {
+                    metrics.record(codecName, callSite, COMPRESS, count, compressed.count, System.nanoTime() - start, failed);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String getFileExtension() {
+        return codec.getFileExtension();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package one.pkg.tinyutils.data;
+
+import one.pkg.tinyutils.exception.ParseException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the variable-length integers used by the Minecraft protocol and protobuf:
+ * seven bits per byte, least significant group first, the high bit marking that another byte follows.
+ * <p>
+ * Negative values always take {@value #MAX_SIZE} bytes. The common one and two byte cases avoid the loop.
+ */
+public final class VarInt {
+    public static final int MAX_SIZE = 5;
+
+    private VarInt() {
+    }
+
+    /**
+     * Returns the number of bytes {@link #write(ByteBuffer, int)} uses for the given value.
+     *
+     * @param value the value
+     * @return the encoded size, between {@code 1} and {@value #MAX_SIZE}
+     */
+    public static int size(int value) {
+        // Branch-free: 1 + floor((31 - leadingZeros) / 7), with 0 taking one byte
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    /**
+     * Writes a value at the buffer position, advancing it.
+     *
+     * @param buffer the buffer
+     * @param value  the value
+     * @throws java.nio.BufferOverflowException if the buffer has too little space left
+     */
+    public static void write(ByteBuffer buffer, int value) {
+        if ((value & ~0x7F) == 0) {
+            buffer.put((byte) value);
+        } else if ((value & ~0x3FFF) == 0) {
+            buffer.put((byte) (value & 0x7F | 0x80)).put((byte) (value >>> 7));
+        } else {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    /**
+     * Writes a value at the given index without touching the buffer position.
+     *
+     * @param buffer the buffer
+     * @param index  the index of the first byte
+     * @param value  the value
+     * @return the number of bytes written
+     */
+    public static int write(ByteBuffer buffer, int index, int value) {
+        int start = index;
+        while ((value & ~0x7F) != 0) {
+            buffer.put(index++, (byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(index++, (byte) value);
+        return index - start;
+    }
+
+    /**
+     * Reads a value at the buffer position, advancing it.
+     *
+     * @param buffer the buffer
+     * @return the value
+     * @throws BufferUnderflowException if the buffer ends in the middle of the value
+     * @throws ParseException           if the value is longer than {@value #MAX_SIZE} bytes
+     */
+    public static int read(ByteBuffer buffer) {
+        byte b = buffer.get();
+        if (b >= 0) return b;
+        int value = b & 0x7F;
+        for (int shift = 7; shift < MAX_SIZE * 7; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new ParseException("VarInt is longer than " + MAX_SIZE + " bytes");
+    }
+
+    /**
+     * Reads a value at the buffer position if it is complete, leaving the position unchanged otherwise.
+     * Useful for frame decoders that may have received only part of a length prefix.
+     *
+     * @param buffer the buffer
+     * @return the value as an unsigned int, or {@code -1} if more bytes are needed
+     * @throws ParseException if the value is longer than {@value #MAX_SIZE} bytes
+     */
+    public static long tryRead(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int value = 0;
+        for (int i = 0; i < MAX_SIZE; i++) {
+            if (position + i >= limit) return -1;
+            byte b = buffer.get(position + i);
+            value |= (b & 0x7F) << (i * 7);
+            if (b >= 0) {
+                buffer.position(position + i + 1);
+                return value & 0xFFFFFFFFL;
+            }
+        }
+        throw new ParseException("VarInt is longer than " + MAX_SIZE + " bytes");
+    }
+}
@@ -0,0 +1,170 @@
+package one.pkg.tinyutils.data;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * A pure Java implementation of the 64-bit xxHash, compatible with the reference implementation.
+ * <p>
+ * Use {@link #hash(byte[], int, int, long)} for one-shot hashing, or an instance as an incremental {@link Checksum}
+ * whose {@link #getValue()} returns the full 64-bit hash. Instances are not thread-safe.
+ */
+public final class XxHash64 implements Checksum {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long seed;
+    private final byte[] buffer = new byte[32];
+    private int buffered;
+    private long length;
+    private long v1, v2, v3, v4;
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public static long hash(byte[] data) {
+        return hash(data, 0, data.length, 0);
+    }
+
+    /**
+     * Hashes a range of bytes.
+     *
+     * @param data   the data
+     * @param offset the start offset
+     * @param length the number of bytes
+     * @param seed   the seed
+     * @return the 64-bit hash
+     */
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        int end = offset + length;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + P1 + P2, v2 = seed + P2, v3 = seed, v4 = seed - P1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, (long) LONG.get(data, offset));
+                v2 = round(v2, (long) LONG.get(data, offset + 8));
+                v3 = round(v3, (long) LONG.get(data, offset + 16));
+                v4 = round(v4, (long) LONG.get(data, offset + 24));
+                offset += 32;
+            } while (offset <= limit);
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += length;
+        return finish(h, data, offset, end);
+    }
+
+    @Override
+    public void update(int b) {
+        buffer[buffered++] = (byte) b;
+        length++;
+        if (buffered == 32) {
+            consumeStripe(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        length += len;
+        if (buffered > 0) {
+            int n = Math.min(len, 32 - buffered);
+            System.arraycopy(b, off, buffer, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+            if (buffered < 32) return;
+            consumeStripe(buffer, 0);
+            buffered = 0;
+        }
+        while (len >= 32) {
+            consumeStripe(b, off);
+            off += 32;
+            len -= 32;
+        }
+        System.arraycopy(b, off, buffer, 0, len);
+        buffered = len;
+    }
+
+    @Override
+    public long getValue() {
+        long h = length >= 32 ? converge(v1, v2, v3, v4) : seed + P5;
+        h += length;
+        return finish(h, buffer, 0, buffered);
+    }
+
+    @Override
+    public void reset() {
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        buffered = 0;
+        length = 0;
+    }
+
+    private void consumeStripe(byte[] data, int offset) {
+        v1 = round(v1, (long) LONG.get(data, offset));
+        v2 = round(v2, (long) LONG.get(data, offset + 8));
+        v3 = round(v3, (long) LONG.get(data, offset + 16));
+        v4 = round(v4, (long) LONG.get(data, offset + 24));
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * P1 + P4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = merge(h, v1);
+        h = merge(h, v2);
+        h = merge(h, v3);
+        return merge(h, v4);
+    }
+
+    private static long finish(long h, byte[] data, int offset, int end) {
+        while (offset + 8 <= end) {
+            h ^= round(0, (long) LONG.get(data, offset));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            offset += 8;
+        }
+        if (offset + 4 <= end) {
+            h ^= ((int) INT.get(data, offset) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            offset += 4;
+        }
+        while (offset < end) {
+            h ^= (data[offset] & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            offset++;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -0,0 +1,60 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.data.XxHash64;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Computes the xxHash64 of every {@code blockSize} bytes of a file, the last block possibly shorter.
+ * <p>
+ * Version 3 patches record these for the new file, together with the xxHash64 of the whole old file, so that
+ * application verifies both several times faster than with MD5, stops at the first corrupted block and can resume a
+ * partially written output after its last intact block.
+ */
+final class BlockHasher {
+    private final int blockSize;
+    private final XxHash64 hash = new XxHash64();
+    private long[] blocks = new long[16];
+    private int count;
+    private int filled;
+
+    BlockHasher(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Records the hashes of the old and new file in a sink.
+     */
+    static void hash(PatchSink sink, byte[] old, byte[] cur) throws IOException {
+        BlockHasher hasher = new BlockHasher(PatchFormat.BLOCK_SIZE);
+        hasher.update(cur, 0, cur.length);
+        sink.hashes(XxHash64.hash(old), PatchFormat.BLOCK_SIZE, hasher.finish());
+    }
+
+    void update(byte[] data, int off, int length) {
+        while (length > 0) {
+            int n = Math.min(length, blockSize - filled);
+            hash.update(data, off, n);
+            filled += n;
+            off += n;
+            length -= n;
+            if (filled == blockSize) endBlock();
+        }
+    }
+
+    /**
+     * @return the hashes of all blocks, none for an empty file
+     */
+    long[] finish() {
+        if (filled > 0) endBlock();
+        return Arrays.copyOf(blocks, count);
+    }
+
+    private void endBlock() {
+        if (count == blocks.length) blocks = Arrays.copyOf(blocks, count * 2);
+        blocks[count++] = hash.getValue();
+        hash.reset();
+        filled = 0;
+    }
+}
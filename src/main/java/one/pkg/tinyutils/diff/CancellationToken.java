@@ -0,0 +1,53 @@
+package one.pkg.tinyutils.diff;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Stops a running patch operation, either when {@link #cancel()} is called from any thread or once a deadline has
+ * passed. The operation checks the token regularly and then throws a {@link CancellationException}.
+ */
+@ApiStatus.Experimental
+public final class CancellationToken {
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this.deadline = 0;
+        this.hasDeadline = false;
+    }
+
+    private CancellationToken(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Returns a token that cancels itself once the given time has passed, to enforce a time budget.
+     *
+     * @param timeout the time from now after which the operation is stopped
+     * @return the token, which can also be cancelled earlier
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(System.nanoTime() + timeout.toNanos());
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws CancellationException if the token is cancelled
+     */
+    public void throwIfCancelled() {
+        if (isCancelled())
+            throw new CancellationException(cancelled ? "Patch operation cancelled" : "Patch operation timed out");
+    }
+}
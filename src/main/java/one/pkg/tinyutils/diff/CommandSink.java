@@ -0,0 +1,24 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+
+/**
+ * Receives the commands that rebuild the new file from the old one, in new-file order. This is all the differs
+ * produce; {@link PatchSink} adds what a patch writer needs to complete the patch.
+ */
+interface CommandSink {
+    /**
+     * Copies {@code length} bytes of the old file starting at {@code oldOffset}.
+     */
+    void copy(long oldOffset, int length) throws IOException;
+
+    /**
+     * Writes {@code old[oldOffset + i] + diff[off + i]} for every {@code i} below {@code length}.
+     */
+    void add(long oldOffset, byte[] diff, int off, int length) throws IOException;
+
+    /**
+     * Writes {@code length} literal bytes.
+     */
+    void insert(byte[] data, int off, int length) throws IOException;
+}
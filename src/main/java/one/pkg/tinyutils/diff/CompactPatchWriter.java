@@ -0,0 +1,159 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.compress.AdaptiveCompress;
+import one.pkg.tinyutils.compress.ICompress;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a version 3 patch. Commands, ADD bytes and INSERT bytes are collected in separate buffers, the latter two
+ * compressed as they arrive, and written out by {@link #finish(long, byte[])}; memory use is therefore about the size
+ * of the finished patch.
+ */
+final class CompactPatchWriter implements ZipPatchSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final long oldLength;
+    private final byte[] oldMd5;
+    private final byte codec;
+    private final ByteArrayOutputStream commands = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream diffs = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream literals = new ByteArrayOutputStream();
+    private final OutputStream diffOut;
+    private final OutputStream literalOut;
+    private long oldHash;
+    private int blockSize;
+    private long[] blockHashes;
+    private long nextOffset;
+    private long pendingOffset;
+    private int pendingLength;
+
+    /**
+     * @param compression compresses the ADD and INSERT bytes, or {@code null} to store them
+     */
+    CompactPatchWriter(OutputStream out, long oldLength, byte[] oldMd5, @Nullable ICompress compression) throws IOException {
+        this.out = out;
+        this.oldLength = oldLength;
+        this.oldMd5 = oldMd5;
+        if (compression == null) {
+            codec = PatchFormat.LITERALS_STORED;
+            diffOut = diffs;
+            literalOut = literals;
+        } else {
+            codec = compression instanceof AdaptiveCompress ? PatchFormat.LITERALS_ADAPTIVE : PatchFormat.LITERALS_CUSTOM;
+            diffOut = new BufferedOutputStream(compression.createCompressStream(diffs), BUFFER_SIZE);
+            literalOut = new BufferedOutputStream(compression.createCompressStream(literals), BUFFER_SIZE);
+        }
+    }
+
+    @Override
+    public void copy(long oldOffset, int length) throws IOException {
+        if (length == 0) return;
+        if (pendingLength > 0 && pendingOffset + pendingLength == oldOffset && pendingLength <= Integer.MAX_VALUE - length) {
+            pendingLength += length;
+            return;
+        }
+        flushCopy();
+        pendingOffset = oldOffset;
+        pendingLength = length;
+    }
+
+    @Override
+    public void add(long oldOffset, byte[] diff, int off, int length) throws IOException {
+        if (length == 0) return;
+        flushCopy();
+        writeRegion(PatchFormat.OP_ADD, oldOffset, length);
+        diffOut.write(diff, off, length);
+    }
+
+    @Override
+    public void insert(byte[] data, int off, int length) throws IOException {
+        if (length == 0) return;
+        flushCopy();
+        commands.write(PatchFormat.OP_INSERT);
+        PatchFormat.writeVarLong(commands, length);
+        literalOut.write(data, off, length);
+    }
+
+    /**
+     * Writes the command to the command section and the nested patch to the literal section.
+     */
+    @Override
+    public void entry(byte level, byte oldMethod, long oldOffset, long oldLength, long length, int crc, byte[] patch)
+            throws IOException {
+        flushCopy();
+        commands.write(PatchFormat.OP_ENTRY);
+        commands.write(level);
+        commands.write(oldMethod);
+        if (oldMethod != ZipDiff.METHOD_NONE) {
+            PatchFormat.writeVarLong(commands, PatchFormat.zigzag(oldOffset - nextOffset));
+            PatchFormat.writeVarLong(commands, oldLength);
+            nextOffset = oldOffset + oldLength;
+        }
+        PatchFormat.writeVarLong(commands, length);
+        commands.write(crc >>> 24);
+        commands.write(crc >>> 16);
+        commands.write(crc >>> 8);
+        commands.write(crc);
+        PatchFormat.writeVarLong(commands, patch.length);
+        literalOut.write(patch);
+    }
+
+    @Override
+    public void hashes(long oldHash, int blockSize, long[] blockHashes) {
+        this.oldHash = oldHash;
+        this.blockSize = blockSize;
+        this.blockHashes = blockHashes;
+    }
+
+    /**
+     * Writes the patch. The hashes are left out if both files fit in one block, where MD5 is as fast and they would
+     * only add to the size of small nested patches.
+     */
+    @Override
+    public void finish(long newLength, byte[] newMd5) throws IOException {
+        flushCopy();
+        commands.write(PatchFormat.OP_END);
+        diffOut.close();
+        literalOut.close();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(PatchFormat.MAGIC);
+        data.writeByte(PatchFormat.VERSION_3);
+        data.writeByte(codec);
+        PatchFormat.writeVarLong(data, oldLength);
+        data.write(oldMd5);
+        boolean hashed = blockHashes != null && (oldLength > blockSize || newLength > blockSize);
+        PatchFormat.writeVarLong(data, hashed ? blockSize : 0);
+        if (hashed) data.writeLong(oldHash);
+        for (ByteArrayOutputStream section : new ByteArrayOutputStream[]{commands, diffs, literals}) {
+            PatchFormat.writeVarLong(data, section.size());
+            section.writeTo(data);
+        }
+        PatchFormat.writeVarLong(data, newLength);
+        data.write(newMd5);
+        if (hashed) {
+            for (long hash : blockHashes) data.writeLong(hash);
+        }
+        data.flush();
+    }
+
+    private void writeRegion(byte op, long oldOffset, int length) throws IOException {
+        commands.write(op);
+        PatchFormat.writeVarLong(commands, PatchFormat.zigzag(oldOffset - nextOffset));
+        PatchFormat.writeVarLong(commands, length);
+        nextOffset = oldOffset + length;
+    }
+
+    private void flushCopy() throws IOException {
+        if (pendingLength == 0) return;
+        writeRegion(PatchFormat.OP_COPY, pendingOffset, pendingLength);
+        pendingLength = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package one.pkg.tinyutils.diff;
+
+/**
+ * The algorithms {@link SimplePatcher} can create patches with.
+ */
+public enum DiffEngine {
+    /**
+     * The original byte-by-byte matcher with a 32 byte lookahead, writing the legacy patch format.
+     * Only suited to files with small in-place edits; any shift of the content makes the patch as large as the file.
+     */
+    GREEDY,
+    /**
+     * A bsdiff-style differ using a suffix array of the old file and approximate matches, writing the framed format.
+     * Produces small patches even when content moves, at the cost of about eight bytes of memory per old file byte.
+     */
+    SUFFIX_ARRAY,
+    /**
+     * {@link #SUFFIX_ARRAY} spread over the common fork-join pool: the suffix array is sorted in parallel passes and
+     * the new file is matched in segments against it, so large inputs are diffed several times faster on multicore
+     * machines. Matches are split at segment boundaries, which costs a few bytes per megabyte of new file, and sorting
+     * needs another four bytes of memory per old file byte.
+     */
+    PARALLEL_SUFFIX_ARRAY,
+    /**
+     * An rsync-style differ indexing the old file in fixed-size blocks by a rolling checksum and a strong hash, then
+     * scanning the new file in one pass, writing the framed format. Memory is bounded by the block index rather than
+     * the file sizes, and the streaming {@code createPatch} variants never buffer a whole file, so it suits files of
+     * many gigabytes. Matches are block aligned, so patches are larger than with {@link #SUFFIX_ARRAY}.
+     */
+    ROLLING_HASH,
+    /**
+     * An entry-aware differ for zip and jar files. Unchanged entries are copied, changed entries are diffed on their
+     * decompressed contents in parallel and recompressed on application. Patches between builds of the same jar are
+     * usually orders of magnitude smaller than those of {@link #SUFFIX_ARRAY}, which is used instead when either file
+     * is not a zip archive the differ can handle.
+     * <p>
+     * The result is byte-identical only if the applying JVM deflates exactly like the creating one. JDKs built against
+     * a different zlib, such as zlib-ng, may compress differently; applying then fails with a zip entry recompression
+     * mismatch rather than producing a different archive. Use another engine for patches applied by unknown runtimes.
+     */
+    ZIP
+}
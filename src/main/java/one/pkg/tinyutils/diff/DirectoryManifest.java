@@ -0,0 +1,197 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.data.XxHash64;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * The files of a directory tree with their size, modification time and xxHash64, see {@link DirectoryPatcher}.
+ * <p>
+ * Paths are relative to the root and use {@code /} as separator. Only regular files are recorded; directories,
+ * symbolic links and other special files are not. Manifests can be written to a stream, so that a node can describe
+ * its directory to the node that builds the bundle for it.
+ */
+@ApiStatus.Experimental
+public final class DirectoryManifest {
+    private static final int MAGIC = 0xD1FF3A4E;
+    private static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, Entry> entries;
+
+    private DirectoryManifest(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Scans a directory, see {@link #scan(Path, DirectoryManifest)}.
+     *
+     * @param root the directory
+     * @return the manifest
+     * @throws IOException if the directory cannot be walked or a file cannot be read
+     */
+    public static DirectoryManifest scan(Path root) throws IOException {
+        return scan(root, null);
+    }
+
+    /**
+     * Scans a directory and hashes its files in parallel on the common {@link ForkJoinPool}. Files whose size and
+     * modification time match their entry in {@code previous} keep its hash instead of being read again.
+     *
+     * @param root     the directory
+     * @param previous an earlier manifest of the same directory, or {@code null}
+     * @return the manifest
+     * @throws IOException if the directory cannot be walked or a file cannot be read
+     */
+    public static DirectoryManifest scan(Path root, @Nullable DirectoryManifest previous) throws IOException {
+        if (!Files.isDirectory(root)) throw new IOException("Not a directory: " + root);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)).toList();
+        }
+
+        List<Future<Entry>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            String path = relativePath(root, file);
+            Entry known = previous == null ? null : previous.get(path);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                long size = Files.size(file);
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                if (known != null && known.size == size && known.modified == modified) return known;
+                return new Entry(path, size, modified, hash(file));
+            }));
+        }
+
+        Map<String, Entry> entries = new TreeMap<>();
+        try {
+            for (Future<Entry> task : tasks) {
+                Entry entry = task.get();
+                entries.put(entry.path, entry);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Entry> task : tasks) task.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to hash files", e.getCause());
+        }
+        return new DirectoryManifest(entries);
+    }
+
+    /**
+     * Reads a manifest written by {@link #write(OutputStream)}.
+     *
+     * @param in the stream, which is not closed
+     * @return the manifest
+     * @throws IOException           if reading fails
+     * @throws IllegalStateException if the data is not a manifest
+     */
+    public static DirectoryManifest read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IllegalStateException("Manifest format error: bad magic");
+        byte version = data.readByte();
+        if (version != VERSION) throw new IllegalStateException("Manifest format error: unsupported version " + version);
+        int count = data.readInt();
+        if (count < 0) throw new IllegalStateException("Manifest format error: negative count " + count);
+        Map<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(data.readUTF(), data.readLong(), data.readLong(), data.readLong());
+            entries.put(entry.path, entry);
+        }
+        return new DirectoryManifest(entries);
+    }
+
+    /**
+     * Writes the manifest in a compact binary form.
+     *
+     * @param out the stream, which is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            data.writeUTF(entry.path);
+            data.writeLong(entry.size);
+            data.writeLong(entry.modified);
+            data.writeLong(entry.hash);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the entries sorted by path
+     */
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * @param path a relative path with {@code /} as separator
+     * @return the entry of the file, or {@code null} if there is none
+     */
+    public @Nullable Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Returns the xxHash64 of a file's contents.
+     */
+    static long hash(Path file) throws IOException {
+        XxHash64 hash = new XxHash64();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) hash.update(buffer, 0, n);
+        }
+        return hash.getValue();
+    }
+
+    private static String relativePath(Path root, Path file) {
+        StringBuilder path = new StringBuilder();
+        for (Path name : root.relativize(file)) {
+            if (!path.isEmpty()) path.append('/');
+            path.append(name);
+        }
+        return path.toString();
+    }
+
+    /**
+     * A file of the tree.
+     *
+     * @param path     the path relative to the root, with {@code /} as separator
+     * @param size     the size in bytes
+     * @param modified the modification time in milliseconds since the epoch
+     * @param hash     the xxHash64 of the contents
+     */
+    public record Entry(String path, long size, long modified, long hash) {
+        /**
+         * @return whether both entries describe the same contents, regardless of the modification time
+         */
+        public boolean sameContents(Entry other) {
+            return size == other.size && hash == other.hash;
+        }
+    }
+}
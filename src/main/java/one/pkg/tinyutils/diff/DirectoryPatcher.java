@@ -0,0 +1,356 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.compress.AdaptiveCompress;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Diffs and patches whole directory trees.
+ * <p>
+ * A bundle created from two {@link DirectoryManifest manifests} contains the files that were added, the paths that
+ * were removed and a compact binary patch for every file whose contents changed; unchanged files are not part of it.
+ * Applying a bundle first builds and verifies every new file in a staging directory next to the target, and only then
+ * moves them into place, so that a mismatching or corrupted bundle leaves the target untouched.
+ *
+ * <pre>{@code
+ * try (OutputStream out = Files.newOutputStream(bundle)) {
+ *     DirectoryPatcher.createBundle(oldDir, newDir, out, DiffEngine.SUFFIX_ARRAY);
+ * }
+ * try (InputStream in = Files.newInputStream(bundle)) {
+ *     DirectoryPatcher.applyBundle(in, targetDir);
+ * }
+ * }</pre>
+ */
+@ApiStatus.Experimental
+public final class DirectoryPatcher {
+    private static final int MAGIC = 0xD1FFB0D1;
+    private static final byte VERSION = 1;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_PATCH = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DirectoryPatcher() {
+    }
+
+    /**
+     * Scans both directories and writes a bundle turning the old one into the new one, see
+     * {@link #createBundle(Path, DirectoryManifest, Path, DirectoryManifest, OutputStream, DiffEngine)}.
+     *
+     * @param oldDir the old directory
+     * @param newDir the new directory
+     * @param bundle the stream receiving the bundle
+     * @param engine the algorithm used to diff changed files
+     * @throws IOException if a directory cannot be read or writing the bundle fails
+     */
+    public static void createBundle(Path oldDir, Path newDir, OutputStream bundle, DiffEngine engine) throws IOException {
+        createBundle(oldDir, DirectoryManifest.scan(oldDir), newDir, DirectoryManifest.scan(newDir), bundle, engine);
+    }
+
+    /**
+     * Writes a bundle turning the old directory into the new one. Patches of changed files are created in parallel on
+     * the common {@link java.util.concurrent.ForkJoinPool} in the compact format with {@link AdaptiveCompress}
+     * literals. The bundle stream is flushed but not closed.
+     *
+     * @param oldDir      the old directory
+     * @param oldManifest the manifest of the old directory
+     * @param newDir      the new directory
+     * @param newManifest the manifest of the new directory
+     * @param bundle      the stream receiving the bundle
+     * @param engine      the algorithm used to diff changed files
+     * @throws IOException if a file cannot be read, changed since it was scanned, or writing the bundle fails
+     */
+    public static void createBundle(Path oldDir, DirectoryManifest oldManifest, Path newDir,
+                                    DirectoryManifest newManifest, OutputStream bundle, DiffEngine engine)
+            throws IOException {
+        TreeSet<String> paths = new TreeSet<>();
+        for (DirectoryManifest.Entry entry : oldManifest.entries()) paths.add(entry.path());
+        for (DirectoryManifest.Entry entry : newManifest.entries()) paths.add(entry.path());
+
+        List<String> ops = new ArrayList<>();
+        List<Future<byte[]>> patches = new ArrayList<>();
+        for (String path : paths) {
+            DirectoryManifest.Entry oldEntry = oldManifest.get(path);
+            DirectoryManifest.Entry newEntry = newManifest.get(path);
+            if (oldEntry != null && newEntry != null) {
+                if (oldEntry.sameContents(newEntry)) continue;
+                Path oldFile = oldDir.resolve(path);
+                Path newFile = newDir.resolve(path);
+                patches.add(ForkJoinPool.commonPool().submit(() -> createPatch(oldFile, newFile, engine)));
+            }
+            ops.add(path);
+        }
+
+        DataOutputStream out = new DataOutputStream(bundle);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(ops.size());
+        int patch = 0;
+        try {
+            for (String path : ops) {
+                DirectoryManifest.Entry oldEntry = oldManifest.get(path);
+                DirectoryManifest.Entry newEntry = newManifest.get(path);
+                if (newEntry == null) {
+                    out.writeByte(OP_REMOVE);
+                    out.writeUTF(path);
+                    out.writeLong(oldEntry.hash());
+                } else if (oldEntry == null) {
+                    out.writeByte(OP_ADD);
+                    out.writeUTF(path);
+                    out.writeLong(newEntry.modified());
+                    out.writeLong(newEntry.hash());
+                    out.writeLong(newEntry.size());
+                    try (InputStream in = Files.newInputStream(newDir.resolve(path))) {
+                        if (copy(in, out, newEntry.size()) != newEntry.size() || in.read() >= 0)
+                            throw new IOException("File changed since it was scanned: " + path);
+                    }
+                } else {
+                    byte[] data = patches.get(patch++).get();
+                    out.writeByte(OP_PATCH);
+                    out.writeUTF(path);
+                    out.writeLong(newEntry.modified());
+                    out.writeLong(oldEntry.hash());
+                    out.writeLong(newEntry.hash());
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<byte[]> task : patches) task.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing files", e);
+        } catch (ExecutionException e) {
+            for (Future<byte[]> task : patches) task.cancel(false);
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to diff files", e.getCause());
+        }
+        out.flush();
+    }
+
+    /**
+     * Applies a bundle to a directory.
+     * <p>
+     * Every file the bundle touches is checked against the hash recorded for the old directory, and every new file
+     * against the hash of the new one, before the target is modified. The new files are then moved into place one by
+     * one with atomic renames where the file system supports them; if a move fails, the files already replaced are
+     * restored. Directories left empty by removed files are deleted.
+     *
+     * @param bundle    the bundle, which is not closed
+     * @param targetDir the directory to update, which must match the old directory of the bundle
+     * @throws IOException           if reading the bundle or updating the directory fails
+     * @throws IllegalStateException if the bundle does not match the directory or is corrupted
+     */
+    public static void applyBundle(InputStream bundle, Path targetDir) throws IOException {
+        if (!Files.isDirectory(targetDir)) throw new IOException("Not a directory: " + targetDir);
+        Path root = targetDir.toAbsolutePath().normalize();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(bundle, BUFFER_SIZE));
+        if (in.readInt() != MAGIC) throw new IllegalStateException("Bundle format error: bad magic");
+        byte version = in.readByte();
+        if (version != VERSION) throw new IllegalStateException("Bundle format error: unsupported version " + version);
+        int count = in.readInt();
+        if (count < 0) throw new IllegalStateException("Bundle format error: negative count " + count);
+
+        Path staging = Files.createTempDirectory(root.getParent(), "." + root.getFileName() + ".staging");
+        try {
+            List<Change> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) changes.add(stage(in, root, staging.resolve(Integer.toString(i))));
+            commit(root, changes, Files.createDirectory(staging.resolve("backup")));
+        } finally {
+            deleteTree(staging);
+        }
+    }
+
+    private static byte[] createPatch(Path oldFile, Path newFile, DiffEngine engine) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        try (InputStream newIn = Files.newInputStream(newFile);
+             InputStream oldIn = Files.newInputStream(oldFile)) {
+            SimplePatcher.createPatch(newIn, oldIn, patch, engine, AdaptiveCompress.getInstance());
+        }
+        return patch.toByteArray();
+    }
+
+    /**
+     * Reads one operation and writes its new file, if any, to {@code staged} after verifying it.
+     */
+    private static Change stage(DataInputStream in, Path root, Path staged) throws IOException {
+        byte op = in.readByte();
+        String path = in.readUTF();
+        Path target = resolve(root, path);
+        switch (op) {
+            case OP_REMOVE -> {
+                checkOld(target, path, in.readLong());
+                return new Change(target, null);
+            }
+            case OP_ADD -> {
+                long modified = in.readLong();
+                long hash = in.readLong();
+                long size = in.readLong();
+                if (size < 0) throw new IllegalStateException("Bundle format error: negative size " + size);
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS))
+                    throw new IllegalStateException("Bundle not applicable to target directory: " + path + " already exists");
+                try (OutputStream out = Files.newOutputStream(staged)) {
+                    if (copy(in, out, size) != size) throw new EOFException("Bundle truncated in " + path);
+                }
+                checkNew(staged, path, hash, modified);
+                return new Change(target, staged);
+            }
+            case OP_PATCH -> {
+                long modified = in.readLong();
+                checkOld(target, path, in.readLong());
+                long hash = in.readLong();
+                int length = in.readInt();
+                if (length < 0) throw new IllegalStateException("Bundle format error: negative patch length " + length);
+                byte[] patch = new byte[length];
+                in.readFully(patch);
+                DataInputStream patchInput = new DataInputStream(new ByteArrayInputStream(patch));
+                if (patchInput.readInt() != PatchFormat.MAGIC)
+                    throw new IllegalStateException("Bundle format error: bad patch for " + path);
+                try (FileChannel old = FileChannel.open(target, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(staged, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                    PatchApplier.apply(patchInput, old, out, null);
+                }
+                checkNew(staged, path, hash, modified);
+                return new Change(target, staged);
+            }
+            default -> throw new IllegalStateException("Bundle format error: unknown operation " + op);
+        }
+    }
+
+    /**
+     * Moves the staged files into place, keeping the replaced ones in {@code backup} until all moves succeeded.
+     */
+    private static void commit(Path root, List<Change> changes, Path backup) throws IOException {
+        List<Change> done = new ArrayList<>(changes.size());
+        List<Path> backups = new ArrayList<>(changes.size());
+        try {
+            for (Change change : changes) {
+                Path saved = null;
+                if (Files.exists(change.target, LinkOption.NOFOLLOW_LINKS)) {
+                    saved = backup.resolve(Integer.toString(done.size()));
+                    move(change.target, saved);
+                }
+                done.add(change);
+                backups.add(saved);
+                if (change.staged != null) {
+                    Files.createDirectories(change.target.getParent());
+                    move(change.staged, change.target);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = done.size() - 1; i >= 0; i--) {
+                try {
+                    Change change = done.get(i);
+                    if (change.staged != null) Files.deleteIfExists(change.target);
+                    if (backups.get(i) != null) move(backups.get(i), change.target);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+
+        for (Change change : changes) {
+            if (change.staged == null) deleteEmptyParents(root, change.target);
+        }
+    }
+
+    private static void checkOld(Path target, String path, long hash) throws IOException {
+        if (!Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) || DirectoryManifest.hash(target) != hash)
+            throw new IllegalStateException("Bundle not applicable to target directory: " + path + " does not match");
+    }
+
+    private static void checkNew(Path staged, String path, long hash, long modified) throws IOException {
+        if (DirectoryManifest.hash(staged) != hash)
+            throw new IllegalStateException("Bundle application failed: checksum mismatch for " + path);
+        Files.setLastModifiedTime(staged, FileTime.fromMillis(modified));
+    }
+
+    /**
+     * Resolves a bundle path, rejecting paths that would leave the target directory.
+     */
+    private static Path resolve(Path root, String path) {
+        if (path.isEmpty() || path.startsWith("/") || path.indexOf('\\') >= 0 || path.indexOf(':') >= 0)
+            throw new IllegalStateException("Bundle format error: invalid path " + path);
+        for (String name : path.split("/", -1)) {
+            if (name.isEmpty() || name.equals(".") || name.equals(".."))
+                throw new IllegalStateException("Bundle format error: invalid path " + path);
+        }
+        Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root) || resolved.equals(root))
+            throw new IllegalStateException("Bundle format error: invalid path " + path);
+        return resolved;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteEmptyParents(Path root, Path file) throws IOException {
+        for (Path dir = file.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+            try (Stream<Path> list = Files.list(dir)) {
+                if (list.findAny().isPresent()) return;
+            }
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException e) {
+                return;
+            }
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        long copied = 0;
+        while (copied < length) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+            if (n < 0) break;
+            out.write(buffer, 0, n);
+            copied += n;
+        }
+        return copied;
+    }
+
+    /**
+     * A file to replace or, if {@code staged} is {@code null}, to remove.
+     */
+    private record Change(Path target, @Nullable Path staged) {
+    }
+}
@@ -0,0 +1,66 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+
+/**
+ * The original differ of {@link SimplePatcher}: walks both files in step, and after a mismatch looks up to 32 bytes
+ * ahead in either file for the next agreeing byte. Bytes skipped in the old file are simply not copied.
+ */
+final class GreedyDiff {
+    private static final int LOOKAHEAD = 32;
+
+    private GreedyDiff() {
+    }
+
+    static void diff(byte[] old, byte[] cur, CommandSink sink) throws IOException {
+        int i = 0, j = 0;
+
+        while (i < cur.length || j < old.length) {
+            int matchLength = 0;
+            while (i + matchLength < cur.length &&
+                    j + matchLength < old.length &&
+                    cur[i + matchLength] == old[j + matchLength]) {
+                matchLength++;
+            }
+
+            if (matchLength > 0) {
+                sink.copy(j, matchLength);
+                i += matchLength;
+                j += matchLength;
+            } else {
+                int newDiffStart = i;
+
+                while (true) {
+                    boolean foundMatch = false;
+
+                    for (int lookAhead = 1; lookAhead < LOOKAHEAD && i + lookAhead < cur.length && j < old.length; lookAhead++) {
+                        if (cur[i + lookAhead] == old[j]) {
+                            i += lookAhead;
+                            foundMatch = true;
+                            break;
+                        }
+                    }
+
+                    if (foundMatch) break;
+
+                    for (int lookAhead = 1; lookAhead < LOOKAHEAD && i < cur.length && j + lookAhead < old.length; lookAhead++) {
+                        if (cur[i] == old[j + lookAhead]) {
+                            j += lookAhead;
+                            foundMatch = true;
+                            break;
+                        }
+                    }
+
+                    if (foundMatch) break;
+
+                    if (i < cur.length) i++;
+                    if (j < old.length) j++;
+
+                    if (i >= cur.length && j >= old.length) break;
+                }
+
+                sink.insert(cur, newDiffStart, i - newDiffStart);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the legacy patch format: EQUAL and DELETE commands walk the old file forwards, and skipped old bytes are
+ * embedded so the applier can verify them. Copies that go backwards and approximate matches become literals.
+ */
+final class LegacyPatchWriter implements PatchSink {
+    static final byte COMMAND_EQUAL = 0;
+    static final byte COMMAND_INSERT = 1;
+    static final byte COMMAND_DELETE = 2;
+
+    private final DataOutputStream out;
+    private final byte[] old;
+    private int position;
+
+    LegacyPatchWriter(OutputStream out, byte[] old, int newLength, byte[] newMd5) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.old = old;
+        this.out.writeInt(newLength);
+        this.out.writeInt(old.length);
+        this.out.write(newMd5);
+    }
+
+    @Override
+    public void copy(long oldOffset, int length) throws IOException {
+        if (length == 0) return;
+        if (oldOffset < position) {
+            insert(old, (int) oldOffset, length);
+            return;
+        }
+        delete((int) oldOffset);
+        out.writeByte(COMMAND_EQUAL);
+        out.writeInt(length);
+        position = (int) oldOffset + length;
+    }
+
+    @Override
+    public void add(long oldOffset, byte[] diff, int off, int length) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (old[(int) oldOffset + i] + diff[off + i]);
+        insert(data, 0, length);
+    }
+
+    @Override
+    public void insert(byte[] data, int off, int length) throws IOException {
+        if (length == 0) return;
+        out.writeByte(COMMAND_INSERT);
+        out.writeInt(length);
+        out.write(data, off, length);
+    }
+
+    @Override
+    public void finish(long newLength, byte[] newMd5) throws IOException {
+        delete(old.length);
+        out.flush();
+    }
+
+    private void delete(int end) throws IOException {
+        if (end == position) return;
+        out.writeByte(COMMAND_DELETE);
+        out.writeInt(end - position);
+        out.write(old, position, end - position);
+        position = end;
+    }
+}
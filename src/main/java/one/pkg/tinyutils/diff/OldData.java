@@ -0,0 +1,86 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.data.XxHash64;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * The old file a patch is applied to, either held in memory or memory-mapped in regions of up to 1 GiB so that files
+ * larger than 2 GiB can be addressed without copying them onto the heap.
+ */
+final class OldData {
+    private static final int REGION_SIZE = 1 << 30;
+
+    private final ByteBuffer[] regions;
+    private final int regionSize;
+    private final long length;
+
+    private OldData(ByteBuffer[] regions, int regionSize, long length) {
+        this.regions = regions;
+        this.regionSize = regionSize;
+        this.length = length;
+    }
+
+    static OldData of(byte[] data) {
+        return new OldData(new ByteBuffer[]{ByteBuffer.wrap(data)}, Math.max(1, data.length), data.length);
+    }
+
+    /**
+     * Maps the whole file read-only. The mapping stays valid after the channel is closed.
+     */
+    static OldData map(FileChannel channel) throws IOException {
+        long length = channel.size();
+        ByteBuffer[] regions = new ByteBuffer[(int) ((length + REGION_SIZE - 1) / REGION_SIZE)];
+        for (int i = 0; i < regions.length; i++) {
+            long offset = (long) i * REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(REGION_SIZE, length - offset));
+        }
+        return new OldData(regions, REGION_SIZE, length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    void digest(MessageDigest md) {
+        for (ByteBuffer region : regions) md.update(region.duplicate());
+    }
+
+    long hash() {
+        XxHash64 hash = new XxHash64();
+        for (ByteBuffer region : regions) hash.update(region.duplicate());
+        return hash.getValue();
+    }
+
+    /**
+     * Returns a view of {@code [offset, offset + length)}, which must not cross a region boundary; see
+     * {@link #contiguous(long, int)}.
+     */
+    ByteBuffer slice(long offset, int length) {
+        int index = (int) (offset / regionSize);
+        return regions[index].slice((int) (offset - (long) index * regionSize), length);
+    }
+
+    /**
+     * Returns how many bytes starting at {@code offset}, at most {@code length}, lie in the same region.
+     */
+    int contiguous(long offset, int length) {
+        return (int) Math.min(length, regionSize - offset % regionSize);
+    }
+
+    /**
+     * Adds the old bytes starting at {@code offset} to {@code diff[0, length)}.
+     */
+    void addTo(long offset, byte[] diff, int length) {
+        int done = 0;
+        while (done < length) {
+            int n = contiguous(offset + done, length - done);
+            ByteBuffer old = slice(offset + done, n);
+            for (int i = 0; i < n; i++) diff[done + i] += old.get(i);
+            done += n;
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.compress.AdaptiveCompress;
+import one.pkg.tinyutils.compress.ICompress;
+import one.pkg.tinyutils.data.XxHash64;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Applies framed patches, see {@link PatchFormat}.
+ */
+final class PatchApplier {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private PatchApplier() {
+    }
+
+    /**
+     * Applies a framed patch whose magic has already been read.
+     *
+     * @param patch    the patch, positioned at the version byte
+     * @param old      the contents of the old file
+     * @param out      receives the new file
+     * @param literals the codec of version 3 patches written with a custom literal compression, or {@code null}
+     * @return the number of bytes written
+     * @throws IOException           if reading the patch or writing the output fails
+     * @throws IllegalStateException if the patch does not belong to the old file or is corrupted
+     */
+    static long apply(DataInputStream patch, byte[] old, OutputStream out, @Nullable ICompress literals) throws IOException {
+        return apply(patch, OldData.of(old), Channels.newChannel(out), literals, null);
+    }
+
+    /**
+     * Applies a framed patch to a memory-mapped old file, writing the new file to a channel. Heap use is constant:
+     * copies are written from the mapping and checksums are computed as the data passes through.
+     *
+     * @param patch    the patch, positioned at the version byte
+     * @param old      the old file
+     * @param out      receives the new file, typically a {@link java.nio.channels.FileChannel}
+     * @param literals the codec of version 3 patches written with a custom literal compression, or {@code null}
+     * @return the number of bytes written
+     * @throws IOException           if reading the patch or writing the output fails
+     * @throws IllegalStateException if the patch does not belong to the old file or is corrupted
+     */
+    static long apply(DataInputStream patch, FileChannel old, WritableByteChannel out,
+                      @Nullable ICompress literals) throws IOException {
+        return apply(patch, OldData.map(old), out, literals, null);
+    }
+
+    /**
+     * Like {@link #apply(DataInputStream, FileChannel, WritableByteChannel, ICompress)}, but keeps the leading blocks
+     * of an existing output that match the block checksums of a version 3 patch and only writes the rest. Other
+     * patches are applied from the start. The output is truncated to the new file size.
+     *
+     * @param out the output, opened for reading and writing
+     * @return the number of bytes of the existing output that were kept
+     */
+    static long resume(DataInputStream patch, FileChannel old, FileChannel out,
+                       @Nullable ICompress literals) throws IOException {
+        Resume resume = new Resume(out);
+        out.position(0);
+        long written = apply(patch, OldData.map(old), out, literals, resume);
+        out.truncate(written);
+        return resume.kept;
+    }
+
+    private static long apply(DataInputStream patch, OldData old, WritableByteChannel channel,
+                              @Nullable ICompress literals, @Nullable Resume resume) throws IOException {
+        byte version = patch.readByte();
+        if (version == PatchFormat.VERSION_3) return applyCompact(patch, old, channel, literals, resume);
+        if (version != PatchFormat.VERSION_2 && version != PatchFormat.VERSION_ZIP)
+            throw new IllegalStateException("Patch file format error: unsupported version " + version);
+
+        long oldLength = patch.readLong();
+        byte[] oldMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(oldMd5);
+        checkOld(old, oldLength, oldMd5);
+
+        Output out = new Output(channel);
+        applyCommands(patch, version, old, out, literals);
+        out.flush();
+
+        long newLength = patch.readLong();
+        byte[] newMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(newMd5);
+        return checkNew(out, newLength, newMd5);
+    }
+
+    private static long applyCompact(DataInputStream patch, OldData old, WritableByteChannel channel,
+                                     @Nullable ICompress literals, @Nullable Resume resume) throws IOException {
+        ICompress compression = literalCompression(patch.readByte(), literals);
+
+        long oldLength = PatchFormat.readVarLong(patch);
+        byte[] oldMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(oldMd5);
+        int blockSize = PatchFormat.readVarLength(patch);
+        if (blockSize == 0) {
+            checkOld(old, oldLength, oldMd5);
+        } else {
+            checkOld(old, oldLength, patch.readLong());
+        }
+
+        DataInputStream commands = new DataInputStream(new ByteArrayInputStream(readSection(patch)));
+        DataInputStream diffs = openSection(readSection(patch), compression);
+        DataInputStream data = openSection(readSection(patch), compression);
+
+        // The sections are in memory, so the trailer can be read first to check the output as it is written
+        long newLength = PatchFormat.readVarLong(patch);
+        byte[] newMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(newMd5);
+        long[] blocks = blockSize == 0 ? null : readBlocks(patch, newLength, blockSize);
+
+        long skip = 0;
+        if (resume != null && blocks != null) {
+            skip = resume.kept = verified(resume.file, newLength, blockSize, blocks);
+            resume.file.position(skip);
+        }
+        Output out = blocks == null ? new Output(channel) : new Output(channel, blockSize, blocks, skip);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long next = 0;
+        boolean end = false;
+        while (!end) {
+            int op = commands.read();
+            switch (op) {
+                case PatchFormat.OP_END -> end = true;
+                case PatchFormat.OP_COPY, PatchFormat.OP_ADD -> {
+                    long offset = next + PatchFormat.unzigzag(PatchFormat.readVarLong(commands));
+                    int length = PatchFormat.readVarLength(commands);
+                    if (op == PatchFormat.OP_COPY) {
+                        if (!out.skip(length)) copy(old, offset, length, out);
+                    } else {
+                        if (out.skip(length)) diffs.skipNBytes(length);
+                        else add(diffs, old, offset, length, buffer, out);
+                    }
+                    next = offset + length;
+                }
+                case PatchFormat.OP_INSERT -> {
+                    int length = PatchFormat.readVarLength(commands);
+                    if (out.skip(length)) data.skipNBytes(length);
+                    else insert(data, length, buffer, out);
+                }
+                case PatchFormat.OP_ENTRY -> {
+                    byte level = commands.readByte();
+                    byte method = commands.readByte();
+                    long baseOffset = 0, baseLength = 0;
+                    if (method != ZipDiff.METHOD_NONE) {
+                        baseOffset = next + PatchFormat.unzigzag(PatchFormat.readVarLong(commands));
+                        baseLength = PatchFormat.readVarLong(commands);
+                        next = baseOffset + baseLength;
+                    }
+                    long length = PatchFormat.readVarLong(commands);
+                    int crc = commands.readInt();
+                    byte[] nested = new byte[PatchFormat.readVarLength(commands)];
+                    data.readFully(nested);
+                    if (out.skip(length)) continue;
+                    byte[] base = method == ZipDiff.METHOD_NONE ? new byte[0] : extract(old, baseOffset, baseLength, method);
+                    rebuildEntry(level, base, length, crc, new DataInputStream(new ByteArrayInputStream(nested)), out,
+                            literals);
+                }
+                case -1 -> throw new IllegalStateException("Patch file format error: missing end of commands");
+                default -> throw new IllegalStateException("Patch file format error: unknown command code " + op);
+            }
+        }
+        out.flush();
+        return checkNew(out, newLength, newMd5);
+    }
+
+    static long[] readBlocks(DataInputStream patch, long newLength, int blockSize) throws IOException {
+        long count = (newLength + blockSize - 1) / blockSize;
+        if (count > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Patch file format error: too many blocks " + count);
+        // Grow as the hashes arrive rather than trusting the count of a corrupted patch
+        long[] blocks = new long[(int) Math.min(count, 1 << 16)];
+        for (int i = 0; i < count; i++) {
+            if (i == blocks.length) blocks = Arrays.copyOf(blocks, (int) Math.min(count, (long) i * 2));
+            blocks[i] = patch.readLong();
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the length of the leading complete blocks of an existing output that match their checksums.
+     */
+    private static long verified(FileChannel file, long newLength, int blockSize, long[] blocks) throws IOException {
+        long size = Math.min(file.size(), newLength);
+        ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        XxHash64 hash = new XxHash64();
+        long verified = 0;
+        for (; verified + blockSize <= size; verified += blockSize) {
+            hash.reset();
+            for (long done = 0; done < blockSize; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), blockSize - done));
+                int n = file.read(buffer, verified + done);
+                if (n < 0) return verified;
+                buffer.flip();
+                hash.update(buffer);
+                done += n;
+            }
+            if (hash.getValue() != blocks[(int) (verified / blockSize)]) break;
+        }
+        return verified;
+    }
+
+    /**
+     * Returns the codec of the diff and literal sections of a version 3 patch, {@code null} if they are stored.
+     */
+    static @Nullable ICompress literalCompression(byte codec, @Nullable ICompress literals) throws IOException {
+        return switch (codec) {
+            case PatchFormat.LITERALS_STORED -> null;
+            case PatchFormat.LITERALS_ADAPTIVE -> AdaptiveCompress.getInstance();
+            case PatchFormat.LITERALS_CUSTOM -> {
+                if (literals == null)
+                    throw new IOException("Patch literals use a custom compression, which has to be given to apply it");
+                yield literals;
+            }
+            default -> throw new IllegalStateException("Patch file format error: unknown literal codec " + codec);
+        };
+    }
+
+    static byte[] readSection(DataInputStream patch) throws IOException {
+        int size = PatchFormat.readVarLength(patch);
+        byte[] section = new byte[size];
+        patch.readFully(section);
+        return section;
+    }
+
+    static DataInputStream openSection(byte[] section, @Nullable ICompress compression) throws IOException {
+        InputStream in = new ByteArrayInputStream(section);
+        return new DataInputStream(compression == null ? in : compression.createDecompressStream(in));
+    }
+
+    private static void checkOld(OldData old, long oldLength, byte[] oldMd5) throws IOException {
+        checkOldLength(old, oldLength);
+        MessageDigest oldDigest = PatchFormat.md5();
+        old.digest(oldDigest);
+        if (!Arrays.equals(oldMd5, oldDigest.digest()))
+            throw new IllegalStateException("Patch not applicable to target file: checksum mismatch");
+    }
+
+    private static void checkOld(OldData old, long oldLength, long oldHash) {
+        checkOldLength(old, oldLength);
+        if (old.hash() != oldHash)
+            throw new IllegalStateException("Patch not applicable to target file: checksum mismatch");
+    }
+
+    private static void checkOldLength(OldData old, long oldLength) {
+        if (old.length() != oldLength) {
+            throw new IllegalStateException("Patch not applicable to target file: size mismatch, expected " +
+                    oldLength + ", actual " + old.length());
+        }
+    }
+
+    private static long checkNew(Output out, long newLength, byte[] newMd5) {
+        if (out.written != newLength)
+            throw new IllegalStateException("Patch application failed: size mismatch, expected " + newLength + ", actual " + out.written);
+        if (out.md == null) {
+            out.endBlock();
+            return out.written;
+        }
+        if (!Arrays.equals(newMd5, out.md.digest()))
+            throw new IllegalStateException("Patch application failed: file checksum mismatch, patch may be corrupted");
+        return out.written;
+    }
+
+    /**
+     * Runs the commands up to and including the end marker.
+     */
+    private static void applyCommands(DataInputStream patch, byte version, OldData old, Output out,
+                                      @Nullable ICompress literals) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (true) {
+            byte op = patch.readByte();
+            switch (op) {
+                case PatchFormat.OP_END -> {
+                    return;
+                }
+                case PatchFormat.OP_COPY -> {
+                    long offset = patch.readLong();
+                    int length = patch.readInt();
+                    copy(old, offset, length, out);
+                }
+                case PatchFormat.OP_ADD -> {
+                    long offset = patch.readLong();
+                    int length = patch.readInt();
+                    add(patch, old, offset, length, buffer, out);
+                }
+                case PatchFormat.OP_INSERT -> insert(patch, readLength(patch), buffer, out);
+                case PatchFormat.OP_ENTRY -> {
+                    if (version != PatchFormat.VERSION_ZIP)
+                        throw new IllegalStateException("Patch file format error: unknown command code " + op);
+                    applyEntry(patch, old, out, literals);
+                }
+                default -> throw new IllegalStateException("Patch file format error: unknown command code " + op);
+            }
+        }
+    }
+
+    private static void applyEntry(DataInputStream patch, OldData old, Output out,
+                                   @Nullable ICompress literals) throws IOException {
+        byte level = patch.readByte();
+        byte method = patch.readByte();
+        byte[] base = new byte[0];
+        if (method != ZipDiff.METHOD_NONE) {
+            long offset = patch.readLong();
+            long length = patch.readLong();
+            base = extract(old, offset, length, method);
+        }
+        long length = patch.readLong();
+        rebuildEntry(level, base, length, patch.readInt(), patch, out, literals);
+    }
+
+    /**
+     * Rebuilds a zip entry: patches the contents of the old entry and compresses the result again. The contents are
+     * already verified by the nested patch, so a size or CRC mismatch of the result means that this JVM's deflater
+     * does not reproduce the output of the one that created the patch.
+     */
+    private static void rebuildEntry(byte level, byte[] base, long length, int crc, DataInputStream patch, Output out,
+                                     @Nullable ICompress literals) throws IOException {
+        if (level != ZipDiff.LEVEL_STORED && (level < 0 || level > 9))
+            throw new IllegalStateException("Patch file format error: invalid level " + level);
+        byte[] content = applyNested(patch, base, literals);
+        long start = out.written;
+        CRC32 actual = new CRC32();
+        if (level == ZipDiff.LEVEL_STORED) {
+            out.write(content, 0, content.length);
+            actual.update(content);
+        } else {
+            deflate(content, level, out, actual);
+        }
+        if (out.written - start != length || (int) actual.getValue() != crc)
+            throw new IllegalStateException("Patch application failed: zip entry recompression mismatch at offset " +
+                    start + "; the deflater of this JVM compresses differently from the one that created the patch");
+    }
+
+    private static byte[] applyNested(DataInputStream patch, byte[] old, @Nullable ICompress literals) throws IOException {
+        if (patch.readInt() != PatchFormat.MAGIC)
+            throw new IllegalStateException("Patch file format error: missing nested patch");
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        apply(patch, OldData.of(old), Channels.newChannel(result), literals, null);
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes {@code length} old bytes plus the diff bytes read from {@code diffs}.
+     */
+    private static void add(DataInputStream diffs, OldData old, long offset, int length, byte[] buffer,
+                            Output out) throws IOException {
+        checkRange(offset, length, old.length());
+        for (int done = 0; done < length; ) {
+            int n = Math.min(buffer.length, length - done);
+            diffs.readFully(buffer, 0, n);
+            old.addTo(offset + done, buffer, n);
+            out.write(buffer, 0, n);
+            done += n;
+        }
+    }
+
+    private static void insert(DataInputStream data, int length, byte[] buffer, Output out) throws IOException {
+        for (int done = 0; done < length; ) {
+            int n = Math.min(buffer.length, length - done);
+            data.readFully(buffer, 0, n);
+            out.write(buffer, 0, n);
+            done += n;
+        }
+    }
+
+    private static void copy(OldData old, long offset, int length, Output out) throws IOException {
+        checkRange(offset, length, old.length());
+        for (int done = 0; done < length; ) {
+            int n = old.contiguous(offset + done, length - done);
+            out.write(old.slice(offset + done, n));
+            done += n;
+        }
+    }
+
+    private static void write(OldData old, long offset, long length, ByteArrayOutputStream out) {
+        if (length > Integer.MAX_VALUE - 8 - out.size())
+            throw new IllegalStateException("Patch file format error: raw data too large");
+        for (long done = 0; done < length; ) {
+            int n = old.contiguous(offset + done, (int) (length - done));
+            ByteBuffer slice = old.slice(offset + done, n);
+            byte[] chunk = new byte[Math.min(n, BUFFER_SIZE)];
+            while (slice.hasRemaining()) {
+                int m = Math.min(chunk.length, slice.remaining());
+                slice.get(chunk, 0, m);
+                out.write(chunk, 0, m);
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * Returns the contents of an old zip entry.
+     */
+    static byte[] extract(OldData old, long offset, long length, byte method) throws IOException {
+        checkRange(offset, length, old.length());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (method == ZipDiff.METHOD_STORED) {
+            write(old, offset, length, content);
+            return content.toByteArray();
+        }
+        if (method != ZipDiff.METHOD_DEFLATED) throw new IllegalStateException("Patch file format error: unsupported zip method " + method);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long done = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (done == length)
+                        throw new IllegalStateException("Patch application failed: truncated zip entry in target file");
+                    int n = old.contiguous(offset + done, (int) Math.min(Integer.MAX_VALUE, length - done));
+                    inflater.setInput(old.slice(offset + done, n));
+                    done += n;
+                }
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary())
+                    throw new IllegalStateException("Patch application failed: unsupported zip entry in target file");
+                content.write(buffer, 0, n);
+            }
+            return content.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Patch application failed: corrupted zip entry in target file", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void deflate(byte[] content, int level, Output out, CRC32 crc) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static int readLength(DataInputStream patch) throws IOException {
+        int length = patch.readInt();
+        if (length < 0) throw new IllegalStateException("Patch file format error: negative length " + length);
+        return length;
+    }
+
+    private static void checkRange(long offset, long length, long oldLength) {
+        if (offset < 0 || length < 0 || offset > oldLength - length)
+            throw new IllegalStateException("Patch application failed: exceeded target file boundary");
+    }
+
+    /**
+     * The output of {@link #resume} and how much of it was kept.
+     */
+    private static final class Resume {
+        private final FileChannel file;
+        private long kept;
+
+        private Resume(FileChannel file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Buffers small writes, passes large ones straight to the channel, and checks everything written: with MD5, or
+     * block by block against xxHash64 checksums so that corruption is reported at the first bad block.
+     */
+    private static final class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        private final @Nullable MessageDigest md;
+        private final int blockSize;
+        private final long[] blocks;
+        private final XxHash64 blockHash = new XxHash64();
+        private final long skip;
+        private long written;
+
+        private Output(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            this.md = PatchFormat.md5();
+            this.blockSize = 0;
+            this.blocks = null;
+            this.skip = 0;
+        }
+
+        /**
+         * @param skip the length of the output prefix that is already in place and is dropped instead of written
+         */
+        private Output(WritableByteChannel channel, int blockSize, long[] blocks, long skip) {
+            this.channel = channel;
+            this.md = null;
+            this.blockSize = blockSize;
+            this.blocks = blocks;
+            this.skip = skip;
+        }
+
+        /**
+         * Accounts for the next {@code length} bytes without writing them if they all lie in the kept prefix.
+         *
+         * @return whether the bytes were skipped
+         */
+        private boolean skip(long length) {
+            if (skip == 0 || written + length > skip) return false;
+            written += length;
+            return true;
+        }
+
+        private void write(byte[] data, int offset, int length) throws IOException {
+            write(ByteBuffer.wrap(data, offset, length));
+        }
+
+        private void write(ByteBuffer data) throws IOException {
+            if (written < skip) {
+                int drop = (int) Math.min(data.remaining(), skip - written);
+                written += drop;
+                data.position(data.position() + drop);
+            }
+            check(data);
+            written += data.remaining();
+            if (data.remaining() > buffer.remaining()) {
+                flush();
+                if (data.remaining() >= buffer.capacity()) {
+                    while (data.hasRemaining()) channel.write(data);
+                    return;
+                }
+            }
+            buffer.put(data);
+        }
+
+        private void check(ByteBuffer data) {
+            if (md != null) {
+                md.update(data.duplicate());
+                return;
+            }
+            long position = written;
+            for (int pos = data.position(); pos < data.limit(); ) {
+                int n = (int) Math.min(data.limit() - pos, blockSize - position % blockSize);
+                blockHash.update(data.slice(pos, n));
+                pos += n;
+                position += n;
+                if (position % blockSize == 0) checkBlock(position / blockSize - 1);
+            }
+        }
+
+        /**
+         * Checks the last block if it is shorter than the block size.
+         */
+        private void endBlock() {
+            if (written % blockSize != 0) checkBlock(written / blockSize);
+        }
+
+        private void checkBlock(long index) {
+            if (index >= blocks.length || blockHash.getValue() != blocks[(int) index]) {
+                throw new IllegalStateException("Patch application failed: checksum mismatch in block " + index +
+                        ", patch may be corrupted");
+            }
+            blockHash.reset();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
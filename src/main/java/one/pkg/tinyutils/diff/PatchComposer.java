@@ -0,0 +1,361 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.compress.ICompress;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges a chain of framed patches into one by rewriting their commands, without the files in between.
+ * <p>
+ * A patch is read into a {@link Script}, the list of pieces its new file is made of. Composing a patch from old to mid
+ * with one from mid to new maps every range of mid that the second patch reads back through the pieces of the first,
+ * so copies and diffs of mid become copies and diffs of old, diffs on top of diffs are summed, and diffs on literals
+ * become literals.
+ * <p>
+ * Zip entries rebuilt by the first patch can only be copied whole or rebuilt again, in which case their nested patches
+ * are composed. Entries the second patch rebuilds have to come from an unchanged range of old, from literals, or from
+ * exactly one rebuilt entry.
+ */
+final class PatchComposer {
+    private PatchComposer() {
+    }
+
+    /**
+     * Reads a framed patch whose magic has already been read.
+     *
+     * @param patch    the patch, positioned at the version byte
+     * @param literals the codec of version 3 patches written with a custom literal compression, or {@code null}
+     */
+    static Script read(DataInputStream patch, @Nullable ICompress literals) throws IOException {
+        byte version = patch.readByte();
+        if (version == PatchFormat.VERSION_3) return readCompact(patch, literals);
+        if (version != PatchFormat.VERSION_2 && version != PatchFormat.VERSION_ZIP)
+            throw new IllegalStateException("Patch file format error: unsupported version " + version);
+
+        long oldLength = patch.readLong();
+        byte[] oldMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(oldMd5);
+
+        List<Command> commands = new ArrayList<>();
+        while (true) {
+            byte op = patch.readByte();
+            if (op == PatchFormat.OP_END) break;
+            switch (op) {
+                case PatchFormat.OP_COPY -> commands.add(new Copy(patch.readLong(), PatchApplier.readLength(patch)));
+                case PatchFormat.OP_ADD -> {
+                    long offset = patch.readLong();
+                    commands.add(new Add(offset, readBytes(patch, PatchApplier.readLength(patch))));
+                }
+                case PatchFormat.OP_INSERT -> commands.add(new Insert(readBytes(patch, PatchApplier.readLength(patch))));
+                case PatchFormat.OP_ENTRY -> {
+                    if (version != PatchFormat.VERSION_ZIP)
+                        throw new IllegalStateException("Patch file format error: unknown command code " + op);
+                    byte level = patch.readByte();
+                    byte method = patch.readByte();
+                    long offset = 0, length = 0;
+                    if (method != ZipDiff.METHOD_NONE) {
+                        offset = patch.readLong();
+                        length = patch.readLong();
+                    }
+                    long size = patch.readLong();
+                    int crc = patch.readInt();
+                    commands.add(new Entry(level, method, offset, length, size, crc, readNested(patch, literals)));
+                }
+                default -> throw new IllegalStateException("Patch file format error: unknown command code " + op);
+            }
+        }
+
+        long newLength = patch.readLong();
+        byte[] newMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(newMd5);
+        return new Script(oldLength, oldMd5, newLength, newMd5, null, commands);
+    }
+
+    private static Script readCompact(DataInputStream patch, @Nullable ICompress literals) throws IOException {
+        ICompress compression = PatchApplier.literalCompression(patch.readByte(), literals);
+        long oldLength = PatchFormat.readVarLong(patch);
+        byte[] oldMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(oldMd5);
+        int blockSize = PatchFormat.readVarLength(patch);
+        long oldHash = blockSize == 0 ? 0 : patch.readLong();
+
+        DataInputStream commands = new DataInputStream(new ByteArrayInputStream(PatchApplier.readSection(patch)));
+        DataInputStream diffs = PatchApplier.openSection(PatchApplier.readSection(patch), compression);
+        DataInputStream data = PatchApplier.openSection(PatchApplier.readSection(patch), compression);
+
+        List<Command> result = new ArrayList<>();
+        long next = 0;
+        while (true) {
+            int op = commands.read();
+            if (op == PatchFormat.OP_END) break;
+            switch (op) {
+                case PatchFormat.OP_COPY, PatchFormat.OP_ADD -> {
+                    long offset = next + PatchFormat.unzigzag(PatchFormat.readVarLong(commands));
+                    int length = PatchFormat.readVarLength(commands);
+                    result.add(op == PatchFormat.OP_COPY ? new Copy(offset, length) : new Add(offset, readBytes(diffs, length)));
+                    next = offset + length;
+                }
+                case PatchFormat.OP_INSERT -> result.add(new Insert(readBytes(data, PatchFormat.readVarLength(commands))));
+                case PatchFormat.OP_ENTRY -> {
+                    byte level = commands.readByte();
+                    byte method = commands.readByte();
+                    long offset = 0, length = 0;
+                    if (method != ZipDiff.METHOD_NONE) {
+                        offset = next + PatchFormat.unzigzag(PatchFormat.readVarLong(commands));
+                        length = PatchFormat.readVarLong(commands);
+                        next = offset + length;
+                    }
+                    long size = PatchFormat.readVarLong(commands);
+                    int crc = commands.readInt();
+                    byte[] nested = readBytes(data, PatchFormat.readVarLength(commands));
+                    Script script = readNested(new DataInputStream(new ByteArrayInputStream(nested)), literals);
+                    result.add(new Entry(level, method, offset, length, size, crc, script));
+                }
+                case -1 -> throw new IllegalStateException("Patch file format error: missing end of commands");
+                default -> throw new IllegalStateException("Patch file format error: unknown command code " + op);
+            }
+        }
+
+        long newLength = PatchFormat.readVarLong(patch);
+        byte[] newMd5 = new byte[PatchFormat.MD5_LENGTH];
+        patch.readFully(newMd5);
+        Hashes hashes = blockSize == 0 ? null
+                : new Hashes(oldHash, blockSize, PatchApplier.readBlocks(patch, newLength, blockSize));
+        return new Script(oldLength, oldMd5, newLength, newMd5, hashes, result);
+    }
+
+    private static Script readNested(DataInputStream patch, @Nullable ICompress literals) throws IOException {
+        if (patch.readInt() != PatchFormat.MAGIC)
+            throw new IllegalStateException("Patch file format error: missing nested patch");
+        return read(patch, literals);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the patch that has the effect of applying {@code first}, then {@code second}.
+     *
+     * @throws IllegalStateException if {@code second} does not apply to the output of {@code first}, or reuses a zip
+     *                               entry rebuilt by {@code first} in a way that cannot be expressed
+     */
+    static Script compose(Script first, Script second) throws IOException {
+        if (first.newLength != second.oldLength || !Arrays.equals(first.newMd5, second.oldMd5))
+            throw new IllegalStateException("Patches do not form a chain: a patch does not apply to the output of the one before it");
+
+        long[] starts = new long[first.commands.size() + 1];
+        for (int i = 0; i < first.commands.size(); i++) starts[i + 1] = starts[i] + first.commands.get(i).size();
+        if (starts[first.commands.size()] != first.newLength)
+            throw new IllegalStateException("Patch file format error: commands do not add up to the new file size");
+
+        List<Command> result = new ArrayList<>();
+        for (Command command : second.commands) {
+            if (command instanceof Copy copy) {
+                map(first, starts, copy.oldOffset, copy.length, null, result);
+            } else if (command instanceof Add add) {
+                map(first, starts, add.oldOffset, add.diff.length, add.diff, result);
+            } else if (command instanceof Entry entry) {
+                result.add(composeEntry(first, starts, entry));
+            } else {
+                result.add(command);
+            }
+        }
+        // The block hashes describe the new file, so they carry over if the old file's hash is known as well
+        Hashes hashes = first.hashes == null || second.hashes == null ? null
+                : new Hashes(first.hashes.oldHash, second.hashes.blockSize, second.hashes.blockHashes);
+        return new Script(first.oldLength, first.oldMd5, second.newLength, second.newMd5, hashes, result);
+    }
+
+    /**
+     * Appends the pieces of {@code first} that produce its new bytes {@code [offset, offset + length)}, plus
+     * {@code diff} if it is not {@code null}.
+     */
+    private static void map(Script first, long[] starts, long offset, int length, @Nullable byte[] diff,
+                            List<Command> result) {
+        if (offset < 0 || offset > first.newLength - length)
+            throw new IllegalStateException("Patch file format error: command exceeds the file it applies to");
+
+        int i = Arrays.binarySearch(starts, offset);
+        if (i < 0) i = -i - 2;
+        // Several pieces may start at the same offset when some are empty; begin with the first of them
+        while (i > 0 && starts[i - 1] == offset) i--;
+        for (int done = 0; done < length; i++) {
+            Command piece = first.commands.get(i);
+            long into = offset + done - starts[i];
+            int n = (int) Math.min(length - done, piece.size() - into);
+            if (n <= 0) continue;
+            if (piece instanceof Copy copy) {
+                long from = copy.oldOffset + into;
+                result.add(diff == null ? new Copy(from, n) : new Add(from, Arrays.copyOfRange(diff, done, done + n)));
+            } else if (piece instanceof Add add) {
+                result.add(new Add(add.oldOffset + into, sum(add.diff, (int) into, diff, done, n)));
+            } else if (piece instanceof Insert insert) {
+                result.add(new Insert(sum(insert.data, (int) into, diff, done, n)));
+            } else {
+                Entry entry = (Entry) piece;
+                if (diff != null || into != 0 || n != entry.length)
+                    throw new IllegalStateException("Patches cannot be composed: a rebuilt zip entry is only partly reused");
+                result.add(entry);
+            }
+            done += n;
+        }
+    }
+
+    private static byte[] sum(byte[] data, int from, @Nullable byte[] diff, int diffFrom, int length) {
+        byte[] result = Arrays.copyOfRange(data, from, from + length);
+        if (diff != null) {
+            for (int i = 0; i < length; i++) result[i] += diff[diffFrom + i];
+        }
+        return result;
+    }
+
+    /**
+     * Moves an entry rebuilt by the second patch onto the old file of the first.
+     */
+    private static Entry composeEntry(Script first, long[] starts, Entry entry) throws IOException {
+        if (entry.oldMethod == ZipDiff.METHOD_NONE) return entry;
+        if (entry.oldLength > Integer.MAX_VALUE)
+            throw new IllegalStateException("Patch file format error: zip entry too large");
+        List<Command> base = new ArrayList<>();
+        map(first, starts, entry.oldOffset, (int) entry.oldLength, null, base);
+
+        // Rebuilt by the first patch as well: rebuild from its base with both content patches in sequence
+        if (base.size() == 1 && base.get(0) instanceof Entry previous) {
+            boolean stored = previous.level == ZipDiff.LEVEL_STORED;
+            if (stored != (entry.oldMethod == ZipDiff.METHOD_STORED))
+                throw new IllegalStateException("Patches cannot be composed: zip entry method does not match");
+            return new Entry(entry.level, previous.oldMethod, previous.oldOffset, previous.oldLength, entry.length,
+                    entry.crc, compose(previous.patch, entry.patch));
+        }
+
+        // Copied unchanged from a single range of old
+        boolean copied = true;
+        long start = 0, next = -1;
+        for (Command piece : base) {
+            if (!(piece instanceof Copy copy) || next >= 0 && copy.oldOffset != next) {
+                copied = false;
+                break;
+            }
+            if (next < 0) start = copy.oldOffset;
+            next = copy.oldOffset + copy.length;
+        }
+        if (copied)
+            return new Entry(entry.level, entry.oldMethod, start, entry.oldLength, entry.length, entry.crc, entry.patch);
+
+        // Written as literals: patch from nothing to the literal contents instead
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        for (Command piece : base) {
+            if (!(piece instanceof Insert insert))
+                throw new IllegalStateException("Patches cannot be composed: a rebuilt zip entry is based on changed data");
+            literal.write(insert.data);
+        }
+        byte[] content = PatchApplier.extract(OldData.of(literal.toByteArray()), 0, literal.size(), entry.oldMethod);
+        Script fromNothing = new Script(0, PatchFormat.md5().digest(), content.length, PatchFormat.md5().digest(content),
+                null, List.of(new Insert(content)));
+        return new Entry(entry.level, ZipDiff.METHOD_NONE, 0, 0, entry.length, entry.crc,
+                compose(fromNothing, entry.patch));
+    }
+
+    /**
+     * Writes a script without zip entries to a sink.
+     *
+     * @throws IllegalArgumentException if the script rebuilds zip entries
+     */
+    static void write(Script script, PatchSink sink) throws IOException {
+        write(script, sink, null, null);
+    }
+
+    /**
+     * Writes a script to a sink, nested patches of zip entries in the format opened by {@code nested}.
+     */
+    static void write(Script script, ZipPatchSink sink, PatchSink.Factory nested) throws IOException {
+        write(script, sink, sink, nested);
+    }
+
+    private static void write(Script script, PatchSink sink, @Nullable ZipPatchSink zip,
+                              @Nullable PatchSink.Factory nested) throws IOException {
+        for (Command command : script.commands) {
+            if (command instanceof Copy copy) {
+                sink.copy(copy.oldOffset, copy.length);
+            } else if (command instanceof Add add) {
+                sink.add(add.oldOffset, add.diff, 0, add.diff.length);
+            } else if (command instanceof Insert insert) {
+                sink.insert(insert.data, 0, insert.data.length);
+            } else {
+                if (zip == null) throw new IllegalArgumentException("Script rebuilds zip entries");
+                Entry entry = (Entry) command;
+                ByteArrayOutputStream patch = new ByteArrayOutputStream();
+                // Nested patches are between entry contents and never rebuild entries themselves
+                write(entry.patch, nested.open(patch, entry.patch.oldLength, entry.patch.oldMd5));
+                zip.entry(entry.level, entry.oldMethod, entry.oldOffset, entry.oldLength, entry.length, entry.crc,
+                        patch.toByteArray());
+            }
+        }
+        if (script.hashes != null) sink.hashes(script.hashes.oldHash, script.hashes.blockSize, script.hashes.blockHashes);
+        sink.finish(script.newLength, script.newMd5);
+    }
+
+    /**
+     * A patch in memory: the size and checksum of both files and the pieces of the new file in order.
+     */
+    record Script(long oldLength, byte[] oldMd5, long newLength, byte[] newMd5, @Nullable Hashes hashes,
+                  List<Command> commands) {
+        boolean hasEntries() {
+            for (Command command : commands) if (command instanceof Entry) return true;
+            return false;
+        }
+    }
+
+    /**
+     * The xxHash64 checksums of a version 3 patch, see {@link BlockHasher}.
+     */
+    record Hashes(long oldHash, int blockSize, long[] blockHashes) {
+    }
+
+    sealed interface Command permits Copy, Add, Insert, Entry {
+        /**
+         * @return the number of new file bytes the command produces
+         */
+        long size();
+    }
+
+    record Copy(long oldOffset, int length) implements Command {
+        @Override
+        public long size() {
+            return length;
+        }
+    }
+
+    record Add(long oldOffset, byte[] diff) implements Command {
+        @Override
+        public long size() {
+            return diff.length;
+        }
+    }
+
+    record Insert(byte[] data) implements Command {
+        @Override
+        public long size() {
+            return data.length;
+        }
+    }
+
+    record Entry(byte level, byte oldMethod, long oldOffset, long oldLength, long length, int crc, Script patch)
+            implements Command {
+        @Override
+        public long size() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Constants of the framed patch formats.
+ * <p>
+ * Legacy patches start with the non-negative size of the new file, framed patches with the negative {@link #MAGIC}
+ * followed by a version byte, which is how {@link SimplePatcher#applyPatch(java.io.InputStream, java.io.InputStream)}
+ * tells them apart.
+ * <p>
+ * Version 2 layout, big-endian:
+ * <pre>
+ * header   int magic, byte version, long oldLength, byte[16] oldMd5
+ * command* byte op, then
+ *            COPY   long oldOffset, int length
+ *            ADD    long oldOffset, int length, byte[length] diff
+ *            INSERT int length, byte[length] data
+ * trailer  byte END, long newLength, byte[16] newMd5
+ * </pre>
+ * <p>
+ * The zip format, written by {@link ZipDiff}, has the version 2 layout with one more command that rebuilds an archive
+ * entry: the entry contents are patched from the contents of an old entry, or from nothing, and deflated again.
+ * The nested patch is a complete patch of any other version, including its magic. The CRC-32 of the compressed data
+ * tells a deflater that does not reproduce the original output apart from a corrupted patch.
+ * <pre>
+ *            ENTRY  byte level (-1 for stored), byte oldMethod (-1 for none),
+ *                   [long oldOffset, long oldCompressedLength], long compressedLength, int compressedCrc, patch
+ * </pre>
+ * <p>
+ * Version 3, written by {@link CompactPatchWriter}, uses unsigned LEB128 varints ({@code var}) and splits the patch into
+ * sections so that the bytes of ADD and INSERT can be compressed apart from the commands. Old offsets are zigzag
+ * encoded relative to the end of the previous COPY or ADD, so sequential regions cost one byte. The literal codec is
+ * {@link #LITERALS_STORED}, {@link #LITERALS_ADAPTIVE}, which records its own codec, or {@link #LITERALS_CUSTOM}, which
+ * needs the same {@link one.pkg.tinyutils.compress.ICompress} on both ends. Unless {@code blockSize} is zero, the
+ * old file is checked by its xxHash64 and the new file block by block as it is written, see {@link BlockHasher}; the
+ * MD5s identify the files for {@link PatchComposer}.
+ * <pre>
+ * header   int magic, byte version, byte literalCodec, var oldLength, byte[16] oldMd5,
+ *          var blockSize, [long oldHash]
+ * commands var size, then byte op, and
+ *            COPY   var oldOffsetDelta, var length
+ *            ADD    var oldOffsetDelta, var length (diff bytes in the diff section)
+ *            INSERT var length (data in the literal section)
+ *            ENTRY  byte level, byte oldMethod, [var oldOffsetDelta, var oldCompressedLength],
+ *                   var compressedLength, int compressedCrc, var patchLength (nested patch in the literal section)
+ *          up to and including END
+ * diff     var size, the concatenated ADD bytes, compressed with the literal codec
+ * literal  var size, the concatenated INSERT bytes, compressed with the literal codec
+ * trailer  var newLength, byte[16] newMd5, [long[ceil(newLength / blockSize)] blockHashes]
+ * </pre>
+ */
+final class PatchFormat {
+    static final int MAGIC = 0xD1FF5A7C;
+    static final byte VERSION_2 = 2;
+    static final byte VERSION_3 = 3;
+    static final byte VERSION_ZIP = 0x5A;
+
+    static final byte LITERALS_STORED = 0;
+    static final byte LITERALS_ADAPTIVE = 1;
+    static final byte LITERALS_CUSTOM = 2;
+
+    static final byte OP_END = 0;
+    static final byte OP_COPY = 1;
+    static final byte OP_ADD = 2;
+    static final byte OP_INSERT = 3;
+    static final byte OP_ENTRY = 4;
+
+    static final int MD5_LENGTH = 16;
+    /**
+     * The block size of the new file checksums of version 3 patches.
+     */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private PatchFormat() {
+    }
+
+    static MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Failed to calculate MD5 checksum", e);
+        }
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Patch file format error: varint too long");
+    }
+
+    /**
+     * Reads a varint that must fit in a non-negative int.
+     */
+    static int readVarLength(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) throw new IllegalStateException("Patch file format error: length too large " + value);
+        return (int) value;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
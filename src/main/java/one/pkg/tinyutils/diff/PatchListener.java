@@ -0,0 +1,69 @@
+package one.pkg.tinyutils.diff;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Receives the progress of creating or applying a patch, see
+ * {@link SimplePatcher#createPatch(java.io.File, java.io.File, java.io.File, DiffEngine, one.pkg.tinyutils.compress.ICompress, PatchListener, CancellationToken)}.
+ * <p>
+ * The listener is called on the thread running the operation, when a phase starts, at most every 100 milliseconds
+ * while it runs, and when it ends. It should return quickly.
+ */
+@ApiStatus.Experimental
+@FunctionalInterface
+public interface PatchListener {
+    void onProgress(Progress progress);
+
+    /**
+     * The steps of creating and applying a patch.
+     */
+    enum Phase {
+        /**
+         * Reading the old and new file into memory.
+         */
+        READ,
+        /**
+         * Indexing the old file: sorting its suffixes, or hashing its blocks with {@link DiffEngine#ROLLING_HASH}.
+         * The bytes of a suffix sort are the suffixes already in their final place.
+         */
+        INDEX,
+        /**
+         * Matching the new file against the old one. The bytes are those of the new file covered so far.
+         */
+        DIFF,
+        /**
+         * Writing the new file from a patch.
+         */
+        APPLY
+    }
+
+    /**
+     * A snapshot of the running phase.
+     *
+     * @param phase        the phase
+     * @param bytes        the bytes processed in this phase so far
+     * @param total        the bytes the phase will process, or {@code -1} if that is not known in advance
+     * @param elapsedNanos the time since the phase started
+     */
+    record Progress(Phase phase, long bytes, long total, long elapsedNanos) {
+        /**
+         * @return the fraction of the phase that is done between {@code 0} and {@code 1}, or {@code -1} if the total
+         * is not known
+         */
+        public double fraction() {
+            if (total < 0) return -1;
+            return total == 0 ? 1 : Math.min(1, (double) bytes / total);
+        }
+
+        public double bytesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : bytes * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the throughput in megabytes (10<sup>6</sup> bytes) per second
+         */
+        public double megabytesPerSecond() {
+            return bytesPerSecond() / 1e6;
+        }
+    }
+}
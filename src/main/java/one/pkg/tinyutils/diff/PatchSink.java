@@ -0,0 +1,29 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the commands of a patch in a particular format and completes it with the checksums of the new file.
+ */
+interface PatchSink extends CommandSink {
+    /**
+     * Records the xxHash64 of the old file and of the blocks of the new file, see {@link BlockHasher}. Formats that
+     * support them check the files with these instead of the MD5s; others ignore them. Called before {@link #finish}.
+     */
+    default void hashes(long oldHash, int blockSize, long[] blockHashes) throws IOException {
+    }
+
+    /**
+     * Ends the commands and records the size and checksum of the new file.
+     */
+    void finish(long newLength, byte[] newMd5) throws IOException;
+
+    /**
+     * Opens a sink writing a patch in a particular format.
+     */
+    @FunctionalInterface
+    interface Factory {
+        PatchSink open(OutputStream out, long oldLength, byte[] oldMd5) throws IOException;
+    }
+}
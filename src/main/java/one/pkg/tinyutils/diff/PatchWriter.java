@@ -0,0 +1,78 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a version 2 patch, or the start of a {@link ZipPatchWriter zip patch}. Adjacent copies of contiguous old
+ * regions are merged into one command.
+ */
+sealed class PatchWriter implements PatchSink permits ZipPatchWriter {
+    final DataOutputStream out;
+    private long pendingOffset;
+    private int pendingLength;
+
+    PatchWriter(OutputStream out, long oldLength, byte[] oldMd5) throws IOException {
+        this(out, PatchFormat.VERSION_2, oldLength, oldMd5);
+    }
+
+    PatchWriter(OutputStream out, byte version, long oldLength, byte[] oldMd5) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(PatchFormat.MAGIC);
+        this.out.writeByte(version);
+        this.out.writeLong(oldLength);
+        this.out.write(oldMd5);
+    }
+
+    @Override
+    public void copy(long oldOffset, int length) throws IOException {
+        if (length == 0) return;
+        if (pendingLength > 0 && pendingOffset + pendingLength == oldOffset && pendingLength <= Integer.MAX_VALUE - length) {
+            pendingLength += length;
+            return;
+        }
+        flushCopy();
+        pendingOffset = oldOffset;
+        pendingLength = length;
+    }
+
+    @Override
+    public void add(long oldOffset, byte[] diff, int off, int length) throws IOException {
+        if (length == 0) return;
+        flushCopy();
+        out.writeByte(PatchFormat.OP_ADD);
+        out.writeLong(oldOffset);
+        out.writeInt(length);
+        out.write(diff, off, length);
+    }
+
+    @Override
+    public void insert(byte[] data, int off, int length) throws IOException {
+        if (length == 0) return;
+        flushCopy();
+        out.writeByte(PatchFormat.OP_INSERT);
+        out.writeInt(length);
+        out.write(data, off, length);
+    }
+
+    /**
+     * Ends the command stream and writes the trailer describing the new file.
+     */
+    @Override
+    public void finish(long newLength, byte[] newMd5) throws IOException {
+        flushCopy();
+        out.writeByte(PatchFormat.OP_END);
+        out.writeLong(newLength);
+        out.write(newMd5);
+        out.flush();
+    }
+
+    void flushCopy() throws IOException {
+        if (pendingLength == 0) return;
+        out.writeByte(PatchFormat.OP_COPY);
+        out.writeLong(pendingOffset);
+        out.writeInt(pendingLength);
+        pendingLength = 0;
+    }
+}
@@ -0,0 +1,211 @@
+package one.pkg.tinyutils.diff;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Tracks the phases of one patch operation for a {@link PatchListener} and checks its {@link CancellationToken}.
+ * <p>
+ * The clock and the token are only consulted every {@link #CHECK_BYTES} bytes, so reporting small commands costs a
+ * few field updates. {@link #NONE} does nothing and is shared; other instances belong to the thread running the
+ * operation, apart from {@link #checkCancelled()}, which any thread may call.
+ */
+final class ProgressTracker {
+    static final ProgressTracker NONE = new ProgressTracker(null, null);
+    private static final long CHECK_BYTES = 64 * 1024;
+    private static final long REPORT_NANOS = 100_000_000L;
+
+    private final @Nullable PatchListener listener;
+    private final @Nullable CancellationToken token;
+    private PatchListener.Phase phase;
+    private long total;
+    private long bytes;
+    private long checked;
+    private long start;
+    private long reported;
+
+    private ProgressTracker(@Nullable PatchListener listener, @Nullable CancellationToken token) {
+        this.listener = listener;
+        this.token = token;
+    }
+
+    static ProgressTracker of(@Nullable PatchListener listener, @Nullable CancellationToken token) {
+        return listener == null && token == null ? NONE : new ProgressTracker(listener, token);
+    }
+
+    /**
+     * Ends the running phase, if any, and starts the next one.
+     *
+     * @param total the bytes the phase will process, or {@code -1} if unknown
+     */
+    void begin(PatchListener.Phase next, long total) {
+        if (this == NONE) return;
+        end();
+        checkCancelled();
+        phase = next;
+        this.total = total;
+        bytes = checked = 0;
+        start = reported = System.nanoTime();
+        report(start);
+    }
+
+    /**
+     * Reports the final state of the running phase, if any.
+     */
+    void end() {
+        if (phase == null) return;
+        report(System.nanoTime());
+        phase = null;
+    }
+
+    void advance(long n) {
+        update(bytes + n);
+    }
+
+    /**
+     * Sets the bytes processed in the running phase.
+     */
+    void update(long processed) {
+        if (this == NONE) return;
+        bytes = processed;
+        if (bytes - checked < CHECK_BYTES) return;
+        checked = bytes;
+        checkCancelled();
+        long now = System.nanoTime();
+        if (now - reported >= REPORT_NANOS) report(now);
+    }
+
+    void checkCancelled() {
+        if (token != null) token.throwIfCancelled();
+    }
+
+    private void report(long now) {
+        reported = now;
+        if (listener != null && phase != null)
+            listener.onProgress(new PatchListener.Progress(phase, bytes, total, now - start));
+    }
+
+    InputStream input(InputStream in) {
+        if (this == NONE) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) advance(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) advance(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                advance(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    WritableByteChannel channel(WritableByteChannel channel) {
+        if (this == NONE) return channel;
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                checkCancelled();
+                int n = channel.write(src);
+                advance(n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Counts the new file bytes each command produces.
+     */
+    PatchSink sink(PatchSink sink) {
+        if (this == NONE) return sink;
+        return new TrackedSink(sink);
+    }
+
+    ZipPatchSink sink(ZipPatchSink sink) {
+        if (this == NONE) return sink;
+        return new TrackedZipSink(sink);
+    }
+
+    ZipPatchSink.Factory factory(ZipPatchSink.Factory factory) {
+        if (this == NONE) return factory;
+        return (out, oldLength, oldMd5) -> sink(factory.open(out, oldLength, oldMd5));
+    }
+
+    private class TrackedSink implements PatchSink {
+        private final PatchSink sink;
+
+        private TrackedSink(PatchSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void copy(long oldOffset, int length) throws IOException {
+            sink.copy(oldOffset, length);
+            advance(length);
+        }
+
+        @Override
+        public void add(long oldOffset, byte[] diff, int off, int length) throws IOException {
+            sink.add(oldOffset, diff, off, length);
+            advance(length);
+        }
+
+        @Override
+        public void insert(byte[] data, int off, int length) throws IOException {
+            sink.insert(data, off, length);
+            advance(length);
+        }
+
+        @Override
+        public void hashes(long oldHash, int blockSize, long[] blockHashes) throws IOException {
+            sink.hashes(oldHash, blockSize, blockHashes);
+        }
+
+        @Override
+        public void finish(long newLength, byte[] newMd5) throws IOException {
+            sink.finish(newLength, newMd5);
+        }
+    }
+
+    private final class TrackedZipSink extends TrackedSink implements ZipPatchSink {
+        private final ZipPatchSink sink;
+
+        private TrackedZipSink(ZipPatchSink sink) {
+            super(sink);
+            this.sink = sink;
+        }
+
+        @Override
+        public void entry(byte level, byte oldMethod, long oldOffset, long oldLength, long length, int crc,
+                          byte[] patch) throws IOException {
+            sink.entry(level, oldMethod, oldOffset, oldLength, length, crc, patch);
+            advance(length);
+        }
+    }
+}
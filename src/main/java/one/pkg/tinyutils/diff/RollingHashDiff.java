@@ -0,0 +1,238 @@
+package one.pkg.tinyutils.diff;
+
+import one.pkg.tinyutils.data.XxHash64;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * rsync-style differ for files too large for a suffix array.
+ * <p>
+ * The old file is read once and indexed in fixed-size blocks by a rolling weak checksum and a 64-bit xxHash. The new
+ * file is then scanned in a single pass with the rolling checksum; windows matching an indexed block become copies,
+ * everything else literals. Memory is bounded by the block index (about 24 bytes per old block) plus a buffer of a few
+ * blocks, independent of the file sizes. Matches are block aligned in the old file, so patches are larger than with
+ * {@link SuffixArrayDiff} for scattered small edits.
+ */
+final class RollingHashDiff {
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+    /**
+     * Old files are split into at most about this many blocks; larger files use larger blocks.
+     */
+    private static final long TARGET_BLOCKS = 1 << 22;
+    private static final int LITERAL_LIMIT = 64 * 1024;
+
+    private RollingHashDiff() {
+    }
+
+    /**
+     * Picks a block size that keeps the index of an old file of the given size at a few million entries.
+     *
+     * @param oldLength the size of the old file, or {@code -1} if unknown
+     * @return the block size
+     */
+    static int blockSize(long oldLength) {
+        if (oldLength <= DEFAULT_BLOCK_SIZE * TARGET_BLOCKS) return DEFAULT_BLOCK_SIZE;
+        long blocks = (oldLength + TARGET_BLOCKS - 1) / TARGET_BLOCKS;
+        long size = Long.highestOneBit(blocks - 1) << 1;
+        return (int) Math.min(size, 1 << 24);
+    }
+
+    static int weak(byte[] data, int offset, int length) {
+        int a = 0, b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    /**
+     * Reads the old file and indexes its complete blocks.
+     */
+    static Index index(InputStream old, int blockSize) throws IOException {
+        Index index = new Index(blockSize);
+        MessageDigest md = PatchFormat.md5();
+        XxHash64 hash = new XxHash64();
+        byte[] block = new byte[blockSize];
+        while (true) {
+            int n = old.readNBytes(block, 0, blockSize);
+            md.update(block, 0, n);
+            hash.update(block, 0, n);
+            index.oldLength += n;
+            if (n < blockSize) break;
+            index.add(weak(block, 0, blockSize), XxHash64.hash(block, 0, blockSize, 0));
+        }
+        index.oldMd5 = md.digest();
+        index.oldHash = hash.getValue();
+        index.buildTable();
+        return index;
+    }
+
+    /**
+     * Scans the new file and writes the commands, then the trailer.
+     */
+    static void diff(Index index, InputStream cur, PatchSink writer) throws IOException {
+        int bs = index.blockSize;
+        MessageDigest md = PatchFormat.md5();
+        BlockHasher blocks = new BlockHasher(PatchFormat.BLOCK_SIZE);
+        byte[] buffer = new byte[LITERAL_LIMIT + bs + 1];
+        int literalStart = 0, pos = 0, end = 0;
+        long newLength = 0;
+        boolean eof = false;
+        boolean rolling = false;
+        int a = 0, b = 0;
+
+        while (true) {
+            // Keep the window and the byte after it in the buffer
+            if (end - pos <= bs && !eof) {
+                if (literalStart > 0) {
+                    System.arraycopy(buffer, literalStart, buffer, 0, end - literalStart);
+                    pos -= literalStart;
+                    end -= literalStart;
+                    literalStart = 0;
+                }
+                while (end < buffer.length) {
+                    int n = cur.read(buffer, end, buffer.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    md.update(buffer, end, n);
+                    blocks.update(buffer, end, n);
+                    newLength += n;
+                    end += n;
+                }
+            }
+            if (end - pos < bs || index.count == 0) break;
+
+            if (!rolling) {
+                a = 0;
+                b = 0;
+                for (int i = 0; i < bs; i++) {
+                    int x = buffer[pos + i] & 0xff;
+                    a += x;
+                    b += (bs - i) * x;
+                }
+                rolling = true;
+            }
+
+            int block = index.find((a & 0xffff) | (b << 16), buffer, pos);
+            if (block >= 0) {
+                writer.insert(buffer, literalStart, pos - literalStart);
+                writer.copy((long) block * bs, bs);
+                pos += bs;
+                literalStart = pos;
+                rolling = false;
+                continue;
+            }
+
+            if (pos - literalStart >= LITERAL_LIMIT) {
+                writer.insert(buffer, literalStart, pos - literalStart);
+                literalStart = pos;
+            }
+            if (end - pos == bs) {
+                // Last window of the file did not match; the rest are literals
+                break;
+            }
+            int out = buffer[pos] & 0xff;
+            int in = buffer[pos + bs] & 0xff;
+            a += in - out;
+            b += a - bs * out;
+            pos++;
+        }
+
+        // Drain whatever is left, including input beyond the last full window
+        while (true) {
+            writer.insert(buffer, literalStart, end - literalStart);
+            literalStart = end = 0;
+            if (eof) break;
+            int n = cur.read(buffer);
+            if (n < 0) break;
+            md.update(buffer, 0, n);
+            blocks.update(buffer, 0, n);
+            newLength += n;
+            end = n;
+        }
+        writer.hashes(index.oldHash, PatchFormat.BLOCK_SIZE, blocks.finish());
+        writer.finish(newLength, md.digest());
+    }
+
+    /**
+     * Weak and strong hashes of the old blocks with an open-addressing table on the weak hash.
+     * Identical blocks are stored once.
+     */
+    static final class Index {
+        final int blockSize;
+        long oldLength;
+        byte[] oldMd5;
+        long oldHash;
+        private int[] weak = new int[1024];
+        private long[] strong = new long[1024];
+        private int count;
+        private int[] table;
+        private int mask;
+
+        Index(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        private void add(int weakHash, long strongHash) {
+            if (count == weak.length) {
+                weak = Arrays.copyOf(weak, count * 2);
+                strong = Arrays.copyOf(strong, count * 2);
+            }
+            weak[count] = weakHash;
+            strong[count] = strongHash;
+            count++;
+        }
+
+        private void buildTable() {
+            int size = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+            table = new int[size];
+            mask = size - 1;
+            for (int i = 0; i < count; i++) {
+                int slot = slot(weak[i]);
+                boolean duplicate = false;
+                while (table[slot] != 0) {
+                    int j = table[slot] - 1;
+                    if (weak[j] == weak[i] && strong[j] == strong[i]) {
+                        duplicate = true;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (!duplicate) table[slot] = i + 1;
+            }
+        }
+
+        /**
+         * @return the index of the block equal to {@code data[offset, offset + blockSize)}, or {@code -1}
+         */
+        private int find(int weakHash, byte[] data, int offset) {
+            int slot = slot(weakHash);
+            long strongHash = 0;
+            boolean hashed = false;
+            while (table[slot] != 0) {
+                int i = table[slot] - 1;
+                if (weak[i] == weakHash) {
+                    if (!hashed) {
+                        strongHash = XxHash64.hash(data, offset, blockSize, 0);
+                        hashed = true;
+                    }
+                    if (strong[i] == strongHash) return i;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slot(int weakHash) {
+            int h = weakHash * 0x9E3779B9;
+            return (h ^ h >>> 16) & mask;
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package one.pkg.tinyutils.diff;
 
+import one.pkg.tinyutils.compress.AdaptiveCompress;
 import one.pkg.tinyutils.compress.ICompress;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -31,6 +34,7 @@ import java.util.logging.Logger;
  * import java.io.IOException;
  * import java.io.OutputStream;
  * import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
  * import java.nio.file.Path;
  * import java.util.ArrayList;
  * import java.util.List;
@@ -190,9 +194,6 @@ import java.util.logging.Logger;
 @ApiStatus.Experimental
 public class SimplePatcher {
     private static final int CHUNK_SIZE = 4096;
-    private static final byte COMMAND_EQUAL = 0;
-    private static final byte COMMAND_INSERT = 1;
-    private static final byte COMMAND_DELETE = 2;
 
     /**
      * Creates a binary patch that transforms the contents of the source file into the destination file.
@@ -203,88 +204,133 @@ public class SimplePatcher {
      * @throws IOException if an I/O error occurs while reading from the input streams or writing to the patch
      */
     public static OutputStream createPatch(InputStream newFile, InputStream oldFile) throws IOException {
-        ByteArrayOutputStream patchOutputStream = new ByteArrayOutputStream();
-        DataOutputStream patch = new DataOutputStream(patchOutputStream);
-
-        byte[] srcData = readAllBytes(newFile);
-        byte[] dstData = readAllBytes(oldFile);
-
-        patch.writeInt(srcData.length);
-        patch.writeInt(dstData.length);
-
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] srcHash = md.digest(srcData);
-            patch.write(srcHash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("Failed to calculate MD5 checksum", e);
-        }
-
-        int i = 0, j = 0;
-
-        while (i < srcData.length || j < dstData.length) {
-            int matchLength = 0;
-            while (i + matchLength < srcData.length &&
-                    j + matchLength < dstData.length &&
-                    srcData[i + matchLength] == dstData[j + matchLength]) {
-                matchLength++;
-            }
-
-            if (matchLength > 0) {
-                patch.writeByte(COMMAND_EQUAL);
-                patch.writeInt(matchLength);
-
-                i += matchLength;
-                j += matchLength;
-            } else {
-                int srcDiffStart = i;
-                int dstDiffStart = j;
-
-                while (true) {
-                    boolean foundMatch = false;
-
-                    for (int lookAhead = 1; lookAhead < 32 && i + lookAhead < srcData.length && j < dstData.length; lookAhead++) {
-                        if (srcData[i + lookAhead] == dstData[j]) {
-                            i += lookAhead;
-                            foundMatch = true;
-                            break;
-                        }
-                    }
+        return createPatch(newFile, oldFile, DiffEngine.GREEDY);
+    }
 
-                    if (foundMatch) break;
+    /**
+     * Creates a binary patch that transforms the contents of the old file into the new file using the given engine.
+     * <p>
+     * {@link #applyPatch(InputStream, InputStream)} detects the patch format by itself.
+     *
+     * @param newFile the InputStream representing the new file's data
+     * @param oldFile the InputStream representing the old file's data
+     * @param engine  the algorithm used to find the differences
+     * @return a {@link ByteArrayOutputStream} containing the binary patch data
+     * @throws IOException if an I/O error occurs while reading from the input streams or writing to the patch
+     */
+    public static OutputStream createPatch(InputStream newFile, InputStream oldFile, DiffEngine engine) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        createPatch(newFile, oldFile, patch, engine);
+        return patch;
+    }
 
-                    for (int lookAhead = 1; lookAhead < 32 && i < srcData.length && j + lookAhead < dstData.length; lookAhead++) {
-                        if (srcData[i] == dstData[j + lookAhead]) {
-                            j += lookAhead;
-                            foundMatch = true;
-                            break;
-                        }
-                    }
+    /**
+     * Creates a binary patch and writes it to the given stream as it is produced.
+     * <p>
+     * With {@link DiffEngine#ROLLING_HASH} neither file nor the patch is held in memory, which makes this the variant
+     * to use for very large files. The patch stream is flushed but not closed.
+     *
+     * @param newFile the InputStream representing the new file's data
+     * @param oldFile the InputStream representing the old file's data
+     * @param patch   the stream receiving the patch
+     * @param engine  the algorithm used to find the differences
+     * @throws IOException if an I/O error occurs while reading from the input streams or writing to the patch
+     */
+    public static void createPatch(InputStream newFile, InputStream oldFile, OutputStream patch, DiffEngine engine) throws IOException {
+        createPatch(newFile, oldFile, patch, engine, -1, -1, null, ProgressTracker.NONE);
+    }
 
-                    if (foundMatch) break;
+    /**
+     * Creates a binary patch in the compact format, whose commands use variable-length integers and whose literal
+     * bytes are compressed separately from the commands, which compresses far better than compressing the whole patch.
+     * <p>
+     * {@link AdaptiveCompress} records the codec it picks, so such patches apply without further information; any other
+     * literal compression has to be passed to {@code applyPatch} again. The patch is buffered in memory until the diff
+     * is complete, also with {@link DiffEngine#ROLLING_HASH}. The patch stream is flushed but not closed.
+     *
+     * @param newFile            the InputStream representing the new file's data
+     * @param oldFile            the InputStream representing the old file's data
+     * @param patch              the stream receiving the patch
+     * @param engine             the algorithm used to find the differences
+     * @param literalCompression compresses the literal bytes, or {@code null} to store them
+     * @throws IOException if an I/O error occurs while reading from the input streams or writing to the patch
+     */
+    public static void createPatch(InputStream newFile, InputStream oldFile, OutputStream patch, DiffEngine engine,
+                                   @Nullable ICompress literalCompression) throws IOException {
+        createPatch(newFile, oldFile, patch, engine, -1, -1, compact(literalCompression), ProgressTracker.NONE);
+    }
 
-                    if (i < srcData.length) i++;
-                    if (j < dstData.length) j++;
+    private static ZipPatchSink.Factory compact(@Nullable ICompress literalCompression) {
+        return (out, oldLength, oldMd5) -> new CompactPatchWriter(out, oldLength, oldMd5, literalCompression);
+    }
 
-                    if (i >= srcData.length && j >= dstData.length) break;
-                }
+    private static ZipPatchSink.Factory zip(@Nullable ZipPatchSink.Factory format) {
+        return format != null ? format : ZipPatchWriter::new;
+    }
 
-                if (i > srcDiffStart) {
-                    patch.writeByte(COMMAND_INSERT);
-                    patch.writeInt(i - srcDiffStart);
-                    patch.write(srcData, srcDiffStart, i - srcDiffStart);
-                }
+    /**
+     * @param newLength the size of the new file, or {@code -1} if unknown; only used for progress reports
+     * @param oldLength the size of the old file, or {@code -1} if unknown
+     * @param format    opens the writer for the patch, or {@code null} for the legacy format with
+     *                  {@link DiffEngine#GREEDY} and version 2 otherwise
+     */
+    private static void createPatch(InputStream newFile, InputStream oldFile, OutputStream patch, DiffEngine engine,
+                                    long newLength, long oldLength, @Nullable ZipPatchSink.Factory format,
+                                    ProgressTracker progress) throws IOException {
+        PatchSink.Factory factory = format != null ? format : PatchWriter::new;
+        if (engine == DiffEngine.ROLLING_HASH) {
+            progress.begin(PatchListener.Phase.INDEX, oldLength);
+            RollingHashDiff.Index index = RollingHashDiff.index(progress.input(oldFile), RollingHashDiff.blockSize(oldLength));
+            progress.begin(PatchListener.Phase.DIFF, newLength);
+            RollingHashDiff.diff(index, newFile, progress.sink(factory.open(patch, index.oldLength, index.oldMd5)));
+            progress.end();
+            patch.flush();
+            return;
+        }
 
-                if (j > dstDiffStart) {
-                    patch.writeByte(COMMAND_DELETE);
-                    patch.writeInt(j - dstDiffStart);
-                    patch.write(dstData, dstDiffStart, j - dstDiffStart);
-                }
+        progress.begin(PatchListener.Phase.READ, newLength < 0 || oldLength < 0 ? -1 : newLength + oldLength);
+        byte[] newData = readAllBytes(progress.input(newFile));
+        byte[] oldData = readAllBytes(progress.input(oldFile));
+        switch (engine) {
+            case GREEDY -> {
+                byte[] newMd5 = PatchFormat.md5().digest(newData);
+                PatchSink sink = format == null
+                        ? new LegacyPatchWriter(patch, oldData, newData.length, newMd5)
+                        : factory.open(patch, oldData.length, PatchFormat.md5().digest(oldData));
+                progress.begin(PatchListener.Phase.DIFF, newData.length);
+                GreedyDiff.diff(oldData, newData, progress.sink(sink));
+                if (format != null) BlockHasher.hash(sink, oldData, newData);
+                sink.finish(newData.length, newMd5);
+            }
+            case SUFFIX_ARRAY -> createSuffixArrayPatch(newData, oldData, patch, factory, false, progress);
+            case PARALLEL_SUFFIX_ARRAY -> createSuffixArrayPatch(newData, oldData, patch, factory, true, progress);
+            case ZIP -> {
+                // Nested patches of a compact zip patch end up in its compressed literals, so they are stored
+                PatchSink.Factory nested = format != null ? compact(null) : factory;
+                progress.begin(PatchListener.Phase.DIFF, newData.length);
+                if (!ZipDiff.diff(oldData, newData, patch, progress.factory(zip(format)), nested))
+                    createSuffixArrayPatch(newData, oldData, patch, factory, false, progress);
             }
+            default -> throw new IllegalArgumentException("Unknown engine " + engine);
         }
-
+        progress.end();
         patch.flush();
-        return patchOutputStream;
+    }
+
+    private static void createSuffixArrayPatch(byte[] newData, byte[] oldData, OutputStream patch,
+                                               PatchSink.Factory factory, boolean parallel,
+                                               ProgressTracker progress) throws IOException {
+        PatchSink sink = factory.open(patch, oldData.length, PatchFormat.md5().digest(oldData));
+        progress.begin(PatchListener.Phase.INDEX, oldData.length + 1L);
+        int[] suffixes = parallel
+                ? SuffixArrayDiff.parallelSuffixArray(oldData, progress)
+                : SuffixArrayDiff.suffixArray(oldData, progress);
+        progress.begin(PatchListener.Phase.DIFF, newData.length);
+        PatchSink tracked = progress.sink(sink);
+        if (parallel) SuffixArrayDiff.parallelDiff(oldData, suffixes, newData, tracked, progress);
+        else SuffixArrayDiff.diff(oldData, suffixes, newData, 0, newData.length, tracked, progress);
+        BlockHasher.hash(sink, oldData, newData);
+        sink.finish(newData.length, PatchFormat.md5().digest(newData));
     }
 
     /**
@@ -318,14 +364,154 @@ public class SimplePatcher {
      */
     public static void createPatch(File newFile, File oldFile, File patchFile,
                                    @Nullable ICompress compression) throws IOException {
+        createPatch(newFile, oldFile, patchFile, compression, DiffEngine.GREEDY);
+    }
+
+    /**
+     * Creates a binary patch file with the given engine, see {@link #createPatch(InputStream, InputStream, DiffEngine)}.
+     *
+     * @param newFile     the file containing the target state after applying the patch
+     * @param oldFile     the file containing the original state before applying the patch
+     * @param patchFile   the file where the generated patch will be saved; must not yet exist
+     * @param compression the compression method to be applied to the patch output; may be null if no compression is desired
+     * @param engine      the algorithm used to find the differences
+     * @throws IOException if any of the input files do not exist, if the patch file already exists,
+     *                     or if an I/O error occurs while reading or writing files
+     */
+    public static void createPatch(File newFile, File oldFile, File patchFile,
+                                   @Nullable ICompress compression, DiffEngine engine) throws IOException {
         validatePatchFiles(newFile, oldFile, patchFile);
 
-        try (InputStream newStream = new FileInputStream(newFile);
-             InputStream oldStream = new FileInputStream(oldFile);
-             OutputStream patchStream = new FileOutputStream(patchFile)) {
+        try (InputStream newStream = new BufferedInputStream(new FileInputStream(newFile));
+             InputStream oldStream = new BufferedInputStream(new FileInputStream(oldFile));
+             OutputStream patchStream = openPatchOutput(patchFile, compression)) {
+            createPatch(newStream, oldStream, patchStream, engine, newFile.length(), oldFile.length(), null,
+                    ProgressTracker.NONE);
+        }
+    }
+
+    /**
+     * Creates a binary patch file in the compact format, see
+     * {@link #createPatch(InputStream, InputStream, OutputStream, DiffEngine, ICompress)}. The literals are compressed
+     * inside the patch, so the file itself is not compressed again.
+     *
+     * @param newFile            the file containing the target state after applying the patch
+     * @param oldFile            the file containing the original state before applying the patch
+     * @param patchFile          the file where the generated patch will be saved; must not yet exist
+     * @param engine             the algorithm used to find the differences
+     * @param literalCompression compresses the literal bytes, or {@code null} to store them
+     * @throws IOException if any of the input files do not exist, if the patch file already exists,
+     *                     or if an I/O error occurs while reading or writing files
+     */
+    public static void createPatch(File newFile, File oldFile, File patchFile, DiffEngine engine,
+                                   @Nullable ICompress literalCompression) throws IOException {
+        createPatch(newFile, oldFile, patchFile, engine, literalCompression, null, null);
+    }
+
+    /**
+     * Creates a binary patch file in the compact format like
+     * {@link #createPatch(File, File, File, DiffEngine, ICompress)}, reporting its progress and stopping once the
+     * token is cancelled. The patch file is deleted if creating it fails or is cancelled.
+     *
+     * @param newFile            the file containing the target state after applying the patch
+     * @param oldFile            the file containing the original state before applying the patch
+     * @param patchFile          the file where the generated patch will be saved; must not yet exist
+     * @param engine             the algorithm used to find the differences
+     * @param literalCompression compresses the literal bytes, or {@code null} to store them
+     * @param listener           receives the progress, or {@code null}
+     * @param token              stops the operation when cancelled, or {@code null}
+     * @throws IOException                                  if any of the input files do not exist, if the patch file
+     *                                                      already exists, or if an I/O error occurs
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public static void createPatch(File newFile, File oldFile, File patchFile, DiffEngine engine,
+                                   @Nullable ICompress literalCompression, @Nullable PatchListener listener,
+                                   @Nullable CancellationToken token) throws IOException {
+        validatePatchFiles(newFile, oldFile, patchFile);
 
-            ByteArrayOutputStream patchData = (ByteArrayOutputStream) createPatch(newStream, oldStream);
-            processPatchData(patchData, patchStream, compression, true);
+        ProgressTracker progress = ProgressTracker.of(listener, token);
+        try (InputStream newStream = new BufferedInputStream(new FileInputStream(newFile));
+             InputStream oldStream = new BufferedInputStream(new FileInputStream(oldFile));
+             OutputStream patchStream = openPatchOutput(patchFile, null)) {
+            createPatch(newStream, oldStream, patchStream, engine, newFile.length(), oldFile.length(),
+                    compact(literalCompression), progress);
+        } catch (IOException | RuntimeException e) {
+            deletePartial(patchFile, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Composes a chain of patches into one patch with the same effect, so that a file several versions behind is
+     * updated in one pass without materialising the versions in between. The commands of each patch are rewritten in
+     * terms of the old file of the first one; no file contents are needed.
+     * <p>
+     * Every patch has to apply to the output of the one before it, which is checked against the checksums they record.
+     * The result is a version 2 patch, or a zip patch if the chain contains {@link DiffEngine#ZIP} patches. Patches in
+     * the legacy format of {@link DiffEngine#GREEDY} do not record the checksum of their old file and cannot be
+     * composed. The patch streams are not closed.
+     *
+     * @param patches the patches in the order they would be applied
+     * @return a {@link ByteArrayOutputStream} containing the composed patch
+     * @throws IOException              if reading a patch fails
+     * @throws IllegalArgumentException if no patch is given or a patch uses the legacy format
+     * @throws IllegalStateException    if the patches do not form a chain, are corrupted, or reuse rebuilt zip entries
+     *                                  in a way that cannot be expressed as one patch
+     */
+    public static OutputStream compose(InputStream... patches) throws IOException {
+        PatchComposer.Script script = compose(patches, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (script.hasEntries()) {
+            PatchComposer.write(script, new ZipPatchWriter(out, script.oldLength(), script.oldMd5()), PatchWriter::new);
+        } else {
+            PatchComposer.write(script, new PatchWriter(out, script.oldLength(), script.oldMd5()));
+        }
+        return out;
+    }
+
+    /**
+     * Composes a chain of patches into one patch in the compact format, see {@link #compose(InputStream...)}.
+     * The patch stream is flushed but not closed.
+     *
+     * @param composed           the stream receiving the composed patch
+     * @param literalCompression compresses the literal bytes of the composed patch, or {@code null} to store them; also
+     *                           reads compact patches of the chain that were created with this custom compression
+     * @param patches            the patches in the order they would be applied
+     * @throws IOException              if reading a patch or writing the composed patch fails
+     * @throws IllegalArgumentException if no patch is given or a patch uses the legacy format
+     * @throws IllegalStateException    if the patches do not form a chain, are corrupted, or reuse rebuilt zip entries
+     *                                  in a way that cannot be expressed as one patch
+     */
+    public static void compose(OutputStream composed, @Nullable ICompress literalCompression,
+                               InputStream... patches) throws IOException {
+        PatchComposer.Script script = compose(patches, literalCompression);
+        PatchComposer.write(script, compact(literalCompression).open(composed, script.oldLength(), script.oldMd5()),
+                compact(null));
+        composed.flush();
+    }
+
+    private static PatchComposer.Script compose(InputStream[] patches, @Nullable ICompress literalCompression)
+            throws IOException {
+        if (patches.length == 0) throw new IllegalArgumentException("No patches to compose");
+        PatchComposer.Script result = null;
+        for (int i = 0; i < patches.length; i++) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(patches[i]));
+            if (in.readInt() != PatchFormat.MAGIC)
+                throw new IllegalArgumentException("Patch " + i + " uses the legacy format, which cannot be composed");
+            PatchComposer.Script script = PatchComposer.read(in, literalCompression);
+            result = result == null ? script : PatchComposer.compose(result, script);
+        }
+        return result;
+    }
+
+    private static OutputStream openPatchOutput(File patchFile, @Nullable ICompress compression) throws IOException {
+        OutputStream out = new FileOutputStream(patchFile);
+        if (compression == null) return new BufferedOutputStream(out);
+        try {
+            return new BufferedOutputStream(compression.createCompressStream(out));
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
         }
     }
 
@@ -389,12 +575,44 @@ public class SimplePatcher {
      *                               is corrupted, or contains invalid commands
      */
     public static OutputStream applyPatch(InputStream patch, InputStream dst) throws IOException {
+        return applyPatch(patch, dst, null);
+    }
+
+    /**
+     * Applies a patch to a target file and returns the resulting file as an output stream.
+     *
+     * @param patch              the input stream containing the patch data to be applied
+     * @param dst                the input stream of the target file that will be patched
+     * @param literalCompression the custom literal compression a compact patch was created with, or {@code null}
+     * @return an output stream containing the patched file contents
+     * @throws IOException           if an I/O error occurs while reading or writing streams
+     * @throws IllegalStateException if the patch does not match the target file,
+     *                               is corrupted, or contains invalid commands
+     */
+    public static OutputStream applyPatch(InputStream patch, InputStream dst,
+                                          @Nullable ICompress literalCompression) throws IOException {
+        return applyPatch(patch, dst, literalCompression, ProgressTracker.NONE);
+    }
+
+    /**
+     * Applies a patch in memory, reporting the bytes written to {@code progress}. Legacy patches are checked for
+     * cancellation before every command.
+     */
+    private static ByteArrayOutputStream applyPatch(InputStream patch, InputStream dst,
+                                                    @Nullable ICompress literalCompression,
+                                                    ProgressTracker progress) throws IOException {
         DataInputStream patchInput = new DataInputStream(patch);
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
         byte[] dstData = readAllBytes(dst);
 
         int originalSrcSize = patchInput.readInt();
+        if (originalSrcSize == PatchFormat.MAGIC) {
+            PatchApplier.apply(patchInput, dstData, output, literalCompression);
+            progress.advance(output.size());
+            return output;
+        }
+
         int originalDstSize = patchInput.readInt();
 
         if (dstData.length != originalDstSize) {
@@ -409,26 +627,29 @@ public class SimplePatcher {
 
         try {
             while (patchInput.available() > 0) {
+                progress.checkCancelled();
                 byte command = patchInput.readByte();
 
                 switch (command) {
-                    case COMMAND_EQUAL:
+                    case LegacyPatchWriter.COMMAND_EQUAL:
                         int equalLength = patchInput.readInt();
                         if (dstPos + equalLength > dstData.length) {
                             throw new IllegalStateException("Patch application failed: exceeded target file boundary");
                         }
                         output.write(dstData, dstPos, equalLength);
+                        progress.advance(equalLength);
                         dstPos += equalLength;
                         break;
 
-                    case COMMAND_INSERT:
+                    case LegacyPatchWriter.COMMAND_INSERT:
                         int insertLength = patchInput.readInt();
                         byte[] insertData = new byte[insertLength];
                         patchInput.readFully(insertData);
                         output.write(insertData);
+                        progress.advance(insertLength);
                         break;
 
-                    case COMMAND_DELETE:
+                    case LegacyPatchWriter.COMMAND_DELETE:
                         int deleteLength = patchInput.readInt();
                         byte[] expectedDeleteData = new byte[deleteLength];
                         patchInput.readFully(expectedDeleteData);
@@ -486,26 +707,154 @@ public class SimplePatcher {
         applyPatch(patch, dst, outputFile, null);
     }
 
+    /**
+     * Applies a binary patch to a target file and writes the patched content to an output file.
+     * <p>
+     * Framed patches are applied in constant heap: the target file is memory-mapped and the output is streamed to
+     * disk. Legacy patches are applied in memory.
+     *
+     * @param patchFile   the patch file
+     * @param targetFile  the target file to which the patch will be applied
+     * @param outputFile  the file where the patched content will be written; must not yet exist
+     * @param compression the compression the patch file was written with, or {@code null} if it is uncompressed
+     * @throws IOException           if a file is missing, the output file already exists, or an I/O error occurs
+     * @throws IllegalStateException if the patch does not match the target file or is corrupted
+     */
     public static void applyPatch(File patchFile, File targetFile, File outputFile,
                                   @Nullable ICompress compression) throws IOException {
-        validateFiles(patchFile, targetFile, outputFile);
+        applyPatch(patchFile, targetFile, outputFile, compression, null);
+    }
 
-        try (InputStream patchStream = new FileInputStream(patchFile);
-             InputStream targetStream = new FileInputStream(targetFile);
-             OutputStream outputStream = Files.newOutputStream(outputFile.toPath())) {
+    /**
+     * Applies a binary patch to a target file and writes the patched content to an output file, see
+     * {@link #applyPatch(File, File, File, ICompress)}.
+     *
+     * @param patchFile          the patch file
+     * @param targetFile         the target file to which the patch will be applied
+     * @param outputFile         the file where the patched content will be written; must not yet exist
+     * @param compression        the compression the patch file was written with, or {@code null} if it is uncompressed
+     * @param literalCompression the custom literal compression a compact patch was created with, or {@code null}
+     * @throws IOException           if a file is missing, the output file already exists, or an I/O error occurs
+     * @throws IllegalStateException if the patch does not match the target file or is corrupted
+     */
+    public static void applyPatch(File patchFile, File targetFile, File outputFile, @Nullable ICompress compression,
+                                  @Nullable ICompress literalCompression) throws IOException {
+        applyPatch(patchFile, targetFile, outputFile, compression, literalCompression, null, null);
+    }
+
+    /**
+     * Applies a binary patch like {@link #applyPatch(File, File, File, ICompress, ICompress)}, reporting the bytes
+     * written and stopping once the token is cancelled. Legacy patches, which are applied in memory, check the token
+     * before every command. The output file is deleted if applying the patch fails or is cancelled.
+     *
+     * @param patchFile          the patch file
+     * @param targetFile         the target file to which the patch will be applied
+     * @param outputFile         the file where the patched content will be written; must not yet exist
+     * @param compression        the compression the patch file was written with, or {@code null} if it is uncompressed
+     * @param literalCompression the custom literal compression a compact patch was created with, or {@code null}
+     * @param listener           receives the progress, or {@code null}
+     * @param token              stops the operation when cancelled, or {@code null}
+     * @throws IOException                                  if a file is missing, the output file already exists, or an
+     *                                                      I/O error occurs
+     * @throws IllegalStateException                        if the patch does not match the target file or is corrupted
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public static void applyPatch(File patchFile, File targetFile, File outputFile, @Nullable ICompress compression,
+                                  @Nullable ICompress literalCompression, @Nullable PatchListener listener,
+                                  @Nullable CancellationToken token) throws IOException {
+        validateFiles(patchFile, targetFile, outputFile);
 
-            ByteArrayOutputStream processedPatch = new ByteArrayOutputStream();
-            processPatchData(patchStream, processedPatch, compression, false);
+        ProgressTracker progress = ProgressTracker.of(listener, token);
+        try (InputStream patchStream = openPatchInput(patchFile, compression)) {
+            DataInputStream patchInput = new DataInputStream(patchStream);
+            patchStream.mark(Integer.BYTES);
+            progress.begin(PatchListener.Phase.APPLY, -1);
+            if (patchInput.readInt() == PatchFormat.MAGIC) {
+                try (FileChannel target = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ);
+                     FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE,
+                             StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    PatchApplier.apply(patchInput, target, progress.channel(output), literalCompression);
+                }
+                progress.end();
+                return;
+            }
+            patchStream.reset();
 
-            try (InputStream processedPatchStream = new ByteArrayInputStream(processedPatch.toByteArray())) {
-                ByteArrayOutputStream patchedContent =
-                        (ByteArrayOutputStream) applyPatch(processedPatchStream, targetStream);
+            try (InputStream targetStream = new FileInputStream(targetFile);
+                 OutputStream outputStream = Files.newOutputStream(outputFile.toPath())) {
+                ByteArrayOutputStream patchedContent = applyPatch(patchStream, targetStream, null, progress);
+                progress.checkCancelled();
                 patchedContent.writeTo(outputStream);
                 outputStream.flush();
             }
+            progress.end();
+        } catch (IOException | RuntimeException e) {
+            deletePartial(outputFile, e);
+            throw e;
         }
     }
 
+    private static void deletePartial(File file, Exception failure) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Applies a binary patch like {@link #applyPatch(File, File, File, ICompress, ICompress)}, but continues an
+     * interrupted application instead of starting over.
+     * <p>
+     * Compact patches record a checksum for every block of the new file. The leading blocks of an existing output file
+     * that match them are kept and only the rest is written; the output is then truncated to the new file size. Other
+     * patches are applied from the start, overwriting the output.
+     *
+     * @param patchFile          the patch file
+     * @param targetFile         the target file to which the patch will be applied
+     * @param outputFile         the partially written output, or a file that does not exist yet
+     * @param compression        the compression the patch file was written with, or {@code null} if it is uncompressed
+     * @param literalCompression the custom literal compression a compact patch was created with, or {@code null}
+     * @return the number of bytes of the existing output that were kept
+     * @throws IOException           if a file is missing or an I/O error occurs
+     * @throws IllegalStateException if the patch does not match the target file or is corrupted
+     */
+    public static long resumePatch(File patchFile, File targetFile, File outputFile, @Nullable ICompress compression,
+                                   @Nullable ICompress literalCompression) throws IOException {
+        if (!patchFile.exists()) throw new IOException("Patch file does not exist");
+        if (!targetFile.exists()) throw new IOException("Destination file does not exist");
+
+        try (InputStream patchStream = openPatchInput(patchFile, compression)) {
+            DataInputStream patchInput = new DataInputStream(patchStream);
+            patchStream.mark(Integer.BYTES);
+            if (patchInput.readInt() == PatchFormat.MAGIC) {
+                try (FileChannel target = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ);
+                     FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ,
+                             StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                    return PatchApplier.resume(patchInput, target, output, literalCompression);
+                }
+            }
+            patchStream.reset();
+
+            try (InputStream targetStream = new FileInputStream(targetFile);
+                 OutputStream outputStream = Files.newOutputStream(outputFile.toPath())) {
+                ((ByteArrayOutputStream) applyPatch(patchStream, targetStream)).writeTo(outputStream);
+                outputStream.flush();
+            }
+            return 0;
+        }
+    }
+
+    private static InputStream openPatchInput(File patchFile, @Nullable ICompress compression) throws IOException {
+        InputStream in = new FileInputStream(patchFile);
+        if (compression == null) return new BufferedInputStream(in);
+        try {
+            return new BufferedInputStream(compression.createDecompressStream(in));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
 
     /**
      * Applies a binary patch file to a specified destination file and generates a new file with the patched content.
@@ -566,41 +915,6 @@ public class SimplePatcher {
         }
     }
 
-    /**
-     * Processes the patch data by either compressing or writing the input directly to the output stream.
-     *
-     * @param input         the data source, which can be an InputStream or ByteArrayOutputStream, to be processed
-     * @param output        the OutputStream to which the processed data will be written
-     * @param compression   the optional Compress instance defining the compression or decompression method;
-     *                      may be null if no compression is required
-     * @param isCompressing a boolean indicating whether to compress or decompress the data if a
-     *                      compression method is provided
-     * @throws IOException if an I/O error occurs while reading from the input or writing to the output
-     */
-    private static void processPatchData(Object input, OutputStream output,
-                                         @Nullable ICompress compression,
-                                         boolean isCompressing) throws IOException {
-        if (compression == null) {
-            if (input instanceof ByteArrayOutputStream baos) {
-                baos.writeTo(output);
-            } else if (input instanceof InputStream is) {
-                is.transferTo(output);
-            }
-        } else {
-            if (isCompressing) {
-                try (ByteArrayInputStream dataStream =
-                             input instanceof ByteArrayOutputStream ?
-                                     new ByteArrayInputStream(((ByteArrayOutputStream) input).toByteArray()) :
-                                     (ByteArrayInputStream) input) {
-                    compression.compress(dataStream, output);
-                }
-            } else {
-                compression.decompress((InputStream) input, output);
-            }
-        }
-        output.flush();
-    }
-
     /**
      * Reads all the bytes from the provided InputStream and returns them as a byte array.
      *
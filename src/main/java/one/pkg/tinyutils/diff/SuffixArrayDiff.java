@@ -0,0 +1,549 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * bsdiff-style differ: a suffix array of the old file (Larsson-Sadakane qsufsort) finds the longest exact match for
+ * every position of the new file, and each match is extended forwards and backwards into an approximate match that is
+ * stored as a bytewise difference. Code that moved or was recompiled with shifted constants therefore turns into
+ * mostly-zero ADD data instead of literals.
+ * <p>
+ * Memory use is about {@code 8 * oldLength} bytes for the suffix array on top of both files, and another
+ * {@code 4 * oldLength} plus the buffered commands of the segments in flight for {@link #parallelDiff}.
+ */
+final class SuffixArrayDiff {
+    /**
+     * Matches need this many more agreeing bytes than the current alignment before the differ switches to them.
+     */
+    private static final int MIN_GAIN = 8;
+    /**
+     * Runs of unchanged bytes inside an approximate match at least this long become a separate copy.
+     */
+    private static final int MIN_COPY = 32;
+    /**
+     * {@link #parallelDiff} cuts the new file into segments of at least this size.
+     */
+    private static final int MIN_SEGMENT = 1 << 20;
+    /**
+     * Sorting passes of {@link #parallelSuffixArray} hand out at least this many suffixes per task.
+     */
+    private static final int MIN_SPLIT_TASK = 1 << 16;
+    /**
+     * {@link #diff(byte[], int[], byte[], int, int, CommandSink, ProgressTracker)} checks for cancellation every this
+     * many scanned bytes.
+     */
+    private static final int CHECK_INTERVAL = 64 * 1024;
+
+    private SuffixArrayDiff() {
+    }
+
+    static void diff(byte[] old, byte[] cur, CommandSink sink) throws IOException {
+        diff(old, suffixArray(old), cur, 0, cur.length, sink);
+    }
+
+    /**
+     * Like {@link #diff(byte[], byte[], CommandSink)}, but uses the common {@link ForkJoinPool}. The suffix array is built
+     * with parallel sorting passes, then the new file is cut into segments that are matched independently against it
+     * and replayed into the sink in order. A match spanning a segment boundary is split in two, so the patch can be
+     * slightly larger than a sequential one.
+     */
+    static void parallelDiff(byte[] old, byte[] cur, CommandSink sink) throws IOException {
+        parallelDiff(old, parallelSuffixArray(old), cur, sink, ProgressTracker.NONE);
+    }
+
+    /**
+     * Runs the matching of {@link #parallelDiff(byte[], byte[], CommandSink)} with a prebuilt suffix array. Once the
+     * replay fails or is cancelled, the segments that have not finished yet are cancelled as well, and the running
+     * ones stop at their next cancellation check.
+     */
+    static void parallelDiff(byte[] old, int[] suffixes, byte[] cur, CommandSink sink,
+                             ProgressTracker progress) throws IOException {
+        long segments = ForkJoinPool.getCommonPoolParallelism() * 4L;
+        int segment = (int) Math.max(MIN_SEGMENT, (cur.length + segments - 1) / segments);
+        if (cur.length <= segment) {
+            diff(old, suffixes, cur, 0, cur.length, sink, progress);
+            return;
+        }
+
+        List<Future<Recorder>> tasks = new ArrayList<>();
+        for (int from = 0; from < cur.length; from += segment) {
+            int start = from, end = (int) Math.min(cur.length, (long) from + segment);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                Recorder recorder = new Recorder();
+                diff(old, suffixes, cur, start, end, recorder, progress);
+                return recorder;
+            }));
+        }
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                tasks.get(i).get().replay(sink);
+                // Let the finished segment's buffers be collected while later ones are replayed
+                tasks.set(i, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing segments", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof CancellationException ce) throw ce;
+            throw new IOException("Failed to diff segments", e.getCause());
+        } finally {
+            // Replayed segments were cleared, so this only stops the ones left after a failure
+            for (Future<Recorder> task : tasks) if (task != null) task.cancel(false);
+        }
+    }
+
+    /**
+     * Diffs {@code cur[from, to)} against the old file using a prebuilt suffix array.
+     */
+    static void diff(byte[] old, int[] suffixes, byte[] cur, int from, int to, CommandSink sink) throws IOException {
+        diff(old, suffixes, cur, from, to, sink, ProgressTracker.NONE);
+    }
+
+    /**
+     * Like {@link #diff(byte[], int[], byte[], int, int, CommandSink)}, checking for cancellation every
+     * {@value #CHECK_INTERVAL} scanned bytes. Only {@link ProgressTracker#checkCancelled()} is used, so segments may
+     * run this concurrently with one tracker.
+     */
+    static void diff(byte[] old, int[] suffixes, byte[] cur, int from, int to, CommandSink sink,
+                     ProgressTracker progress) throws IOException {
+        int oldLength = old.length;
+        int nextCheck = from + CHECK_INTERVAL;
+        int scan = from, len = 0, pos = 0;
+        int lastScan = from, lastPos = from, lastOffset = 0;
+        byte[] diff = new byte[0];
+        long[] match = new long[1];
+
+        while (scan < to) {
+            int oldScore = 0;
+            int scsc;
+            for (scsc = scan += len; scan < to; scan++) {
+                if (scan >= nextCheck) {
+                    progress.checkCancelled();
+                    nextCheck = scan + CHECK_INTERVAL;
+                }
+                len = search(suffixes, old, cur, scan, to, match);
+                pos = (int) match[0];
+                for (; scsc < scan + len; scsc++) {
+                    if (scsc + lastOffset < oldLength && old[scsc + lastOffset] == cur[scsc]) oldScore++;
+                }
+                if ((len == oldScore && len != 0) || len > oldScore + MIN_GAIN) break;
+                if (scan + lastOffset < oldLength && old[scan + lastOffset] == cur[scan]) oldScore--;
+            }
+
+            if (len != oldScore || scan == to) {
+                // Extend the previous match forwards while at least half of the bytes agree
+                int s = 0, bestForward = 0, lenForward = 0;
+                for (int i = 0; lastScan + i < scan && lastPos + i < oldLength; ) {
+                    if (old[lastPos + i] == cur[lastScan + i]) s++;
+                    i++;
+                    if (s * 2 - i > bestForward * 2 - lenForward) {
+                        bestForward = s;
+                        lenForward = i;
+                    }
+                }
+
+                // Extend the new match backwards the same way
+                int lenBackward = 0;
+                if (scan < to) {
+                    s = 0;
+                    int bestBackward = 0;
+                    for (int i = 1; scan >= lastScan + i && pos >= i; i++) {
+                        if (old[pos - i] == cur[scan - i]) s++;
+                        if (s * 2 - i > bestBackward * 2 - lenBackward) {
+                            bestBackward = s;
+                            lenBackward = i;
+                        }
+                    }
+                }
+
+                // Split an overlap between both extensions where it agrees best
+                if (lastScan + lenForward > scan - lenBackward) {
+                    int overlap = (lastScan + lenForward) - (scan - lenBackward);
+                    s = 0;
+                    int bestSplit = 0, lenSplit = 0;
+                    for (int i = 0; i < overlap; i++) {
+                        if (cur[lastScan + lenForward - overlap + i] == old[lastPos + lenForward - overlap + i]) s++;
+                        if (cur[scan - lenBackward + i] == old[pos - lenBackward + i]) s--;
+                        if (s > bestSplit) {
+                            bestSplit = s;
+                            lenSplit = i + 1;
+                        }
+                    }
+                    lenForward += lenSplit - overlap;
+                    lenBackward -= lenSplit;
+                }
+
+                if (lenForward > 0) {
+                    if (diff.length < lenForward) diff = new byte[Math.max(lenForward, diff.length * 2)];
+                    for (int i = 0; i < lenForward; i++) diff[i] = (byte) (cur[lastScan + i] - old[lastPos + i]);
+                    emitDiff(lastPos, diff, lenForward, sink);
+                }
+                sink.insert(cur, lastScan + lenForward, (scan - lenBackward) - (lastScan + lenForward));
+
+                lastScan = scan - lenBackward;
+                lastPos = pos - lenBackward;
+                lastOffset = pos - scan;
+            }
+        }
+    }
+
+    /**
+     * Emits an approximate match, turning long runs of identical bytes into copies that are cheaper than diff bytes.
+     */
+    private static void emitDiff(long oldOffset, byte[] diff, int length, CommandSink sink) throws IOException {
+        int addStart = 0;
+        int i = 0;
+        while (i < length) {
+            if (diff[i] != 0) {
+                i++;
+                continue;
+            }
+            int zeroStart = i;
+            while (i < length && diff[i] == 0) i++;
+            if (i - zeroStart >= MIN_COPY || zeroStart == addStart && i == length) {
+                sink.add(oldOffset + addStart, diff, addStart, zeroStart - addStart);
+                sink.copy(oldOffset + zeroStart, i - zeroStart);
+                addStart = i;
+            }
+        }
+        sink.add(oldOffset + addStart, diff, addStart, length - addStart);
+    }
+
+    /**
+     * Finds the longest match of {@code cur[scan, to)} in the old file by binary search over the suffix array.
+     *
+     * @return the match length; the old offset is stored in {@code match[0]}
+     */
+    private static int search(int[] suffixes, byte[] old, byte[] cur, int scan, int to, long[] match) {
+        int start = 0, end = old.length;
+        while (end - start >= 2) {
+            int middle = start + (end - start) / 2;
+            if (compare(old, suffixes[middle], cur, scan, to) < 0) start = middle;
+            else end = middle;
+        }
+        int x = matchLength(old, suffixes[start], cur, scan, to);
+        int y = matchLength(old, suffixes[end], cur, scan, to);
+        if (x > y) {
+            match[0] = suffixes[start];
+            return x;
+        }
+        match[0] = suffixes[end];
+        return y;
+    }
+
+    private static int compare(byte[] old, int oldPos, byte[] cur, int scan, int to) {
+        int n = Math.min(old.length - oldPos, to - scan);
+        int mismatch = Arrays.mismatch(old, oldPos, oldPos + n, cur, scan, scan + n);
+        if (mismatch < 0) return 0;
+        return (old[oldPos + mismatch] & 0xff) - (cur[scan + mismatch] & 0xff);
+    }
+
+    private static int matchLength(byte[] old, int oldPos, byte[] cur, int scan, int to) {
+        int n = Math.min(old.length - oldPos, to - scan);
+        int mismatch = Arrays.mismatch(old, oldPos, oldPos + n, cur, scan, scan + n);
+        return mismatch < 0 ? n : mismatch;
+    }
+
+    /**
+     * Builds the suffix array of the given data, including the empty suffix at index {@code 0}.
+     *
+     * @return {@code data.length + 1} suffix start offsets in lexicographic order
+     */
+    static int[] suffixArray(byte[] data) {
+        return suffixArray(data, ProgressTracker.NONE);
+    }
+
+    /**
+     * Like {@link #suffixArray(byte[])}, reporting the sorted suffixes and checking for cancellation once per pass.
+     */
+    static int[] suffixArray(byte[] data, ProgressTracker progress) {
+        int n = data.length;
+        int[] suffixes = new int[n + 1];
+        int[] ranks = new int[n + 1];
+        bucketSort(data, suffixes, ranks);
+
+        for (int h = 1; suffixes[0] != -(n + 1); h += h) {
+            progress.checkCancelled();
+            int len = 0;
+            int i = 0;
+            long sorted = 0;
+            while (i < n + 1) {
+                if (suffixes[i] < 0) {
+                    sorted -= suffixes[i];
+                    len -= suffixes[i];
+                    i -= suffixes[i];
+                } else {
+                    if (len != 0) suffixes[i - len] = -len;
+                    len = ranks[suffixes[i]] + 1 - i;
+                    split(suffixes, ranks, ranks, i, len, h, progress);
+                    i += len;
+                    len = 0;
+                }
+            }
+            if (len != 0) suffixes[i - len] = -len;
+            progress.update(sorted);
+        }
+
+        for (int i = 0; i < n + 1; i++) suffixes[ranks[i]] = i;
+        return suffixes;
+    }
+
+    /**
+     * Builds the same suffix array as {@link #suffixArray(byte[])} on the common {@link ForkJoinPool}.
+     * <p>
+     * Each pass first collects the unsorted groups, then splits them in parallel. Splitting reads the ranks of the
+     * previous pass from a copy, so groups never observe each other's updates; this is plain prefix doubling and may
+     * take a few more passes than the in-place original.
+     */
+    static int[] parallelSuffixArray(byte[] data) {
+        return parallelSuffixArray(data, ProgressTracker.NONE);
+    }
+
+    /**
+     * Like {@link #parallelSuffixArray(byte[])}, reporting the sorted suffixes and checking for cancellation once per
+     * pass.
+     */
+    static int[] parallelSuffixArray(byte[] data, ProgressTracker progress) {
+        int n = data.length;
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (parallelism < 2 || n < MIN_SPLIT_TASK * 2) return suffixArray(data, progress);
+
+        int[] suffixes = new int[n + 1];
+        int[] ranks = new int[n + 1];
+        int[] previous = new int[n + 1];
+        int[] groups = new int[64];
+        bucketSort(data, suffixes, ranks);
+
+        for (int h = 1; suffixes[0] != -(n + 1); h += h) {
+            progress.checkCancelled();
+            int count = 0;
+            int len = 0;
+            int i = 0;
+            long sorted = 0;
+            while (i < n + 1) {
+                if (suffixes[i] < 0) {
+                    sorted -= suffixes[i];
+                    len -= suffixes[i];
+                    i -= suffixes[i];
+                } else {
+                    if (len != 0) suffixes[i - len] = -len;
+                    len = ranks[suffixes[i]] + 1 - i;
+                    if (count + 2 > groups.length) groups = Arrays.copyOf(groups, groups.length * 2);
+                    groups[count++] = i;
+                    groups[count++] = len;
+                    i += len;
+                    len = 0;
+                }
+            }
+            if (len != 0) suffixes[i - len] = -len;
+            progress.update(sorted);
+            if (count == 0) continue;
+
+            System.arraycopy(ranks, 0, previous, 0, n + 1);
+            int taskSize = Math.max(MIN_SPLIT_TASK, n / (parallelism * 8));
+            int step = h;
+            int[] pending = groups;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int first = 0, g = 0, size = 0; g < count; ) {
+                size += groups[g + 1];
+                g += 2;
+                if (size >= taskSize || g == count) {
+                    int from = first, to = g;
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                        for (int k = from; k < to; k += 2)
+                            split(suffixes, previous, ranks, pending[k], pending[k + 1], step, progress);
+                    }));
+                    first = g;
+                    size = 0;
+                }
+            }
+            for (ForkJoinTask<?> task : tasks) task.join();
+        }
+
+        for (int i = 0; i < n + 1; i++) suffixes[ranks[i]] = i;
+        return suffixes;
+    }
+
+    /**
+     * Sorts the suffixes by their first byte, the starting point of both suffix array builders.
+     */
+    private static void bucketSort(byte[] data, int[] suffixes, int[] ranks) {
+        int n = data.length;
+        int[] buckets = new int[256];
+
+        for (byte b : data) buckets[b & 0xff]++;
+        for (int i = 1; i < 256; i++) buckets[i] += buckets[i - 1];
+        for (int i = 255; i > 0; i--) buckets[i] = buckets[i - 1];
+        buckets[0] = 0;
+
+        for (int i = 0; i < n; i++) suffixes[++buckets[data[i] & 0xff]] = i;
+        suffixes[0] = n;
+        for (int i = 0; i < n; i++) ranks[i] = buckets[data[i] & 0xff];
+        ranks[n] = 0;
+        for (int i = 1; i < 256; i++) {
+            if (buckets[i] == buckets[i - 1] + 1) suffixes[buckets[i]] = -1;
+        }
+        suffixes[0] = -1;
+    }
+
+    /**
+     * Sorts the group {@code suffixes[start, start + len)} by the rank {@code h} bytes further on, read from
+     * {@code keys}, and writes the ranks of the resulting groups to {@code ranks}.
+     */
+    private static void split(int[] suffixes, int[] keys, int[] ranks, int start, int len, int h,
+                              ProgressTracker progress) {
+        while (true) {
+            // Partitioning a large group can take a while, so cancellation is also checked within a pass
+            if (len >= MIN_SPLIT_TASK) progress.checkCancelled();
+            if (len < 16) {
+                selectionSplit(suffixes, keys, ranks, start, len, h);
+                return;
+            }
+
+            int x = keys[suffixes[start + len / 2] + h];
+            int jj = 0, kk = 0;
+            for (int i = start; i < start + len; i++) {
+                int v = keys[suffixes[i] + h];
+                if (v < x) jj++;
+                if (v == x) kk++;
+            }
+            jj += start;
+            kk += jj;
+
+            int i = start, j = 0, k = 0;
+            while (i < jj) {
+                int v = keys[suffixes[i] + h];
+                if (v < x) {
+                    i++;
+                } else if (v == x) {
+                    swap(suffixes, i, jj + j);
+                    j++;
+                } else {
+                    swap(suffixes, i, kk + k);
+                    k++;
+                }
+            }
+            while (jj + j < kk) {
+                if (keys[suffixes[jj + j] + h] == x) {
+                    j++;
+                } else {
+                    swap(suffixes, jj + j, kk + k);
+                    k++;
+                }
+            }
+
+            if (jj > start) split(suffixes, keys, ranks, start, jj - start, h, progress);
+            for (i = 0; i < kk - jj; i++) ranks[suffixes[jj + i]] = kk - 1;
+            if (jj == kk - 1) suffixes[jj] = -1;
+
+            // Continue with the upper part iteratively to bound the recursion depth
+            if (start + len <= kk) return;
+            len = start + len - kk;
+            start = kk;
+        }
+    }
+
+    private static void selectionSplit(int[] suffixes, int[] keys, int[] ranks, int start, int len, int h) {
+        for (int k = start, j; k < start + len; k += j) {
+            j = 1;
+            int x = keys[suffixes[k] + h];
+            for (int i = 1; k + i < start + len; i++) {
+                int v = keys[suffixes[k + i] + h];
+                if (v < x) {
+                    x = v;
+                    j = 0;
+                }
+                if (v == x) {
+                    swap(suffixes, k + j, k + i);
+                    j++;
+                }
+            }
+            for (int i = 0; i < j; i++) ranks[suffixes[k + i]] = k + j - 1;
+            if (j == 1) suffixes[k] = -1;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    /**
+     * Buffers the commands of one segment of {@link #parallelDiff} until the segments before it have been written.
+     */
+    private static final class Recorder implements CommandSink {
+        private static final byte COPY = 0, ADD = 1, INSERT = 2;
+
+        private byte[] kinds = new byte[64];
+        private long[] offsets = new long[64];
+        private int[] lengths = new int[64];
+        private int count;
+        private byte[] data = new byte[4096];
+        private int dataLength;
+
+        @Override
+        public void copy(long oldOffset, int length) {
+            record(COPY, oldOffset, length);
+        }
+
+        @Override
+        public void add(long oldOffset, byte[] diff, int off, int length) {
+            record(ADD, oldOffset, length);
+            append(diff, off, length);
+        }
+
+        @Override
+        public void insert(byte[] data, int off, int length) {
+            record(INSERT, 0, length);
+            append(data, off, length);
+        }
+
+        void replay(CommandSink sink) throws IOException {
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                int length = lengths[i];
+                switch (kinds[i]) {
+                    case COPY -> sink.copy(offsets[i], length);
+                    case ADD -> {
+                        sink.add(offsets[i], data, pos, length);
+                        pos += length;
+                    }
+                    default -> {
+                        sink.insert(data, pos, length);
+                        pos += length;
+                    }
+                }
+            }
+        }
+
+        private void record(byte kind, long offset, int length) {
+            if (count == kinds.length) {
+                kinds = Arrays.copyOf(kinds, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            kinds[count] = kind;
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+        }
+
+        private void append(byte[] bytes, int off, int length) {
+            if (data.length - dataLength < length) {
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) data.length * 2, (long) dataLength + length)));
+            }
+            System.arraycopy(bytes, off, data, dataLength, length);
+            dataLength += length;
+        }
+    }
+}
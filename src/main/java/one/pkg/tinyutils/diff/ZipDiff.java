@@ -0,0 +1,358 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Entry-aware differ for zip and jar files.
+ * <p>
+ * Entries whose compressed bytes are unchanged are copied from the old archive, so runs of unchanged entries with their
+ * local headers merge into single copies. Changed entries are inflated and their contents diffed against the old entry
+ * of the same name on the common {@link ForkJoinPool}. The patch records the deflate level that reproduces the new
+ * compressed bytes, which is found by trial and verified byte for byte, so the applied result is identical to the new
+ * archive rather than merely equivalent. Entries that cannot be reproduced are stored as literals, and the central
+ * directory is diffed against the old one with {@link SuffixArrayDiff}. The CRC-32 of each rebuilt entry's compressed
+ * bytes goes into the patch, so a JVM whose zlib compresses differently fails on that entry with a clear error.
+ * <p>
+ * Zip64, encrypted and otherwise unusual archives are rejected so the caller can fall back to a plain diff.
+ */
+final class ZipDiff {
+    /**
+     * Level recorded for entries that are stored rather than deflated.
+     */
+    static final byte LEVEL_STORED = -1;
+    /**
+     * Old method recorded for entries without an old counterpart.
+     */
+    static final byte METHOD_NONE = -1;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+    /**
+     * Deflate levels tried when reproducing an entry, most likely first.
+     */
+    private static final int[] LEVELS = {6, 9, 1, 2, 3, 4, 5, 7, 8, 0};
+
+    private ZipDiff() {
+    }
+
+    /**
+     * Writes a zip patch from {@code old} to {@code cur}.
+     *
+     * @param format opens the writer of the patch
+     * @param nested opens the writers of the patches between entry contents
+     * @return {@code false}, with nothing written, if either file is not a zip archive this class can handle
+     */
+    static boolean diff(byte[] old, byte[] cur, OutputStream patch, ZipPatchSink.Factory format,
+                        PatchSink.Factory nested) throws IOException {
+        List<Entry> oldEntries = parse(old);
+        List<Entry> newEntries = parse(cur);
+        if (oldEntries == null || newEntries == null) return false;
+
+        Map<String, Entry> oldByName = new HashMap<>();
+        Map<Integer, Entry> oldByCrc = new HashMap<>();
+        for (Entry entry : oldEntries) {
+            oldByName.putIfAbsent(entry.name, entry);
+            if (entry.uncompressedSize > 0) oldByCrc.putIfAbsent(entry.crc, entry);
+        }
+
+        List<Future<Recompressed>> tasks = new ArrayList<>(newEntries.size());
+        for (Entry entry : newEntries) {
+            Entry previous = oldByName.get(entry.name);
+            if (previous == null || previous.crc != entry.crc) {
+                // Moved or renamed entries keep their CRC
+                Entry same = oldByCrc.get(entry.crc);
+                if (same != null && same.uncompressedSize == entry.uncompressedSize) previous = same;
+            }
+            if (previous != null && previous.crc == entry.crc && previous.method == entry.method
+                    && Arrays.equals(old, (int) previous.dataOffset, (int) (previous.dataOffset + previous.compressedSize),
+                    cur, (int) entry.dataOffset, (int) (entry.dataOffset + entry.compressedSize))) {
+                tasks.add(null);
+                entry.copyOf = previous;
+                continue;
+            }
+            Entry base = previous;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> recompress(old, base, cur, entry, nested)));
+        }
+
+        List<Recompressed> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<Recompressed> task : tasks) results.add(task == null ? null : task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing zip entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to diff zip entries", e.getCause());
+        }
+
+        ZipPatchSink writer = format.open(patch, old.length, PatchFormat.md5().digest(old));
+        long pos = 0;
+        for (int i = 0; i < newEntries.size(); i++) {
+            Entry entry = newEntries.get(i);
+            Recompressed result = results.get(i);
+            if (entry.copyOf == null && result == null) continue;
+
+            // The local header, and anything that could not be rebuilt, against the bytes before the old entry data
+            Entry base = entry.copyOf != null ? entry.copyOf : result.base;
+            if (base == null) {
+                writer.insert(cur, (int) pos, (int) (entry.dataOffset - pos));
+            } else {
+                diffGap(old, base.rawStart, base.dataOffset, cur, pos, entry.dataOffset, writer);
+            }
+
+            if (entry.copyOf != null) {
+                writer.copy(base.dataOffset, (int) entry.compressedSize);
+            } else {
+                if (base == null) {
+                    writer.entry(result.level, METHOD_NONE, 0, 0, entry.compressedSize, result.crc, result.patch);
+                } else {
+                    writer.entry(result.level, base.method, base.dataOffset, base.compressedSize, entry.compressedSize,
+                            result.crc, result.patch);
+                }
+            }
+            pos = entry.dataOffset + entry.compressedSize;
+        }
+
+        // The central directory, against the bytes after the last old entry
+        Entry last = oldEntries.isEmpty() ? null : oldEntries.get(oldEntries.size() - 1);
+        int oldTail = last == null ? 0 : (int) (last.dataOffset + last.compressedSize);
+        byte[] tail = Arrays.copyOfRange(old, oldTail, old.length);
+        SuffixArrayDiff.diff(tail, SuffixArrayDiff.suffixArray(tail), cur, (int) pos, cur.length, new ShiftedSink(writer, oldTail));
+
+        BlockHasher.hash(writer, old, cur);
+        writer.finish(cur.length, PatchFormat.md5().digest(cur));
+        return true;
+    }
+
+    /**
+     * Diffs two short ranges by their common prefix and suffix, which is all local headers need.
+     */
+    private static void diffGap(byte[] old, long oldFrom, long oldTo, byte[] cur, long from, long to,
+                                CommandSink sink) throws IOException {
+        int oldLength = (int) (oldTo - oldFrom), length = (int) (to - from);
+        int prefix = Arrays.mismatch(old, (int) oldFrom, (int) oldTo, cur, (int) from, (int) to);
+        if (prefix < 0) prefix = length;
+        int suffix = 0;
+        int max = Math.min(oldLength, length) - prefix;
+        while (suffix < max && old[(int) oldTo - 1 - suffix] == cur[(int) to - 1 - suffix]) suffix++;
+        sink.copy(oldFrom, prefix);
+        sink.insert(cur, (int) from + prefix, length - prefix - suffix);
+        sink.copy(oldTo - suffix, suffix);
+    }
+
+    /**
+     * Inflates a changed entry, finds how to reproduce its compressed bytes and diffs its contents.
+     *
+     * @return {@code null} if the compressed bytes cannot be reproduced
+     */
+    private static Recompressed recompress(byte[] old, Entry base, byte[] cur, Entry entry,
+                                          PatchSink.Factory nested) throws IOException {
+        byte[] content = extract(cur, entry);
+        if (content == null) return null;
+
+        byte level;
+        if (entry.method == METHOD_STORED) {
+            level = LEVEL_STORED;
+        } else {
+            level = findLevel(content, cur, entry);
+            if (level == LEVEL_STORED) return null;
+        }
+
+        byte[] baseContent = base == null ? null : extract(old, base);
+        if (baseContent == null) {
+            base = null;
+            baseContent = new byte[0];
+        }
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        PatchSink writer = nested.open(patch, baseContent.length, PatchFormat.md5().digest(baseContent));
+        SuffixArrayDiff.diff(baseContent, content, writer);
+        BlockHasher.hash(writer, baseContent, content);
+        writer.finish(content.length, PatchFormat.md5().digest(content));
+        CRC32 crc = new CRC32();
+        crc.update(cur, (int) entry.dataOffset, (int) entry.compressedSize);
+        return new Recompressed(level, base, (int) crc.getValue(), patch.toByteArray());
+    }
+
+    /**
+     * @return the deflate level reproducing the entry, or {@link #LEVEL_STORED} if none does
+     */
+    private static byte findLevel(byte[] content, byte[] zip, Entry entry) {
+        byte[] buffer = new byte[8192];
+        for (int level : LEVELS) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                long pos = entry.dataOffset, end = entry.dataOffset + entry.compressedSize;
+                boolean matches = true;
+                while (matches && !deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    matches = pos + n <= end && Arrays.equals(buffer, 0, n, zip, (int) pos, (int) pos + n);
+                    pos += n;
+                }
+                if (matches && pos == end) return (byte) level;
+            } finally {
+                deflater.end();
+            }
+        }
+        return LEVEL_STORED;
+    }
+
+    /**
+     * @return the uncompressed contents of the entry, or {@code null} if they do not match its size and CRC
+     */
+    private static byte[] extract(byte[] zip, Entry entry) {
+        if (entry.uncompressedSize > Integer.MAX_VALUE - 8) return null;
+        byte[] content;
+        if (entry.method == METHOD_STORED) {
+            if (entry.compressedSize != entry.uncompressedSize) return null;
+            content = Arrays.copyOfRange(zip, (int) entry.dataOffset, (int) (entry.dataOffset + entry.compressedSize));
+        } else {
+            content = new byte[(int) entry.uncompressedSize];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(zip, (int) entry.dataOffset, (int) entry.compressedSize);
+                int n = 0;
+                while (n < content.length && !inflater.finished()) {
+                    int read = inflater.inflate(content, n, content.length - n);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                    n += read;
+                }
+                if (n != content.length || !inflater.finished() && inflater.inflate(new byte[1]) > 0) return null;
+            } catch (DataFormatException e) {
+                return null;
+            } finally {
+                inflater.end();
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue() == entry.crc ? content : null;
+    }
+
+    /**
+     * Reads the central directory.
+     *
+     * @return the stored and deflated entries ordered by data offset, or {@code null} if the file is not a supported
+     * zip archive
+     */
+    static List<Entry> parse(byte[] zip) {
+        ByteBuffer buf = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = -1;
+        for (int i = zip.length - 22; i >= Math.max(0, zip.length - 22 - 0xFFFF); i--) {
+            if (buf.getInt(i) == END_OF_CENTRAL_DIRECTORY && i + 22 + (buf.getShort(i + 20) & 0xFFFF) <= zip.length) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) return null;
+        int count = buf.getShort(eocd + 10) & 0xFFFF;
+        long cdSize = buf.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cdOffset = buf.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cdOffset == 0xFFFFFFFFL || cdOffset + cdSize > eocd) return null;
+
+        List<Entry> entries = new ArrayList<>(count);
+        int pos = (int) cdOffset;
+        for (int i = 0; i < count; i++) {
+            if (pos + 46 > eocd || buf.getInt(pos) != CENTRAL_HEADER) return null;
+            int flags = buf.getShort(pos + 8) & 0xFFFF;
+            int method = buf.getShort(pos + 10) & 0xFFFF;
+            int crc = buf.getInt(pos + 16);
+            long compressedSize = buf.getInt(pos + 20) & 0xFFFFFFFFL;
+            long uncompressedSize = buf.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+            long localOffset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+            if ((flags & 1) != 0 || compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL
+                    || localOffset == 0xFFFFFFFFL || pos + 46 + nameLength > eocd) return null;
+            String name = new String(zip, pos + 46, nameLength, StandardCharsets.ISO_8859_1);
+            pos += 46 + nameLength + extraLength + commentLength;
+
+            if (localOffset + 30 > cdOffset || buf.getInt((int) localOffset) != LOCAL_HEADER) return null;
+            long dataOffset = localOffset + 30 + (buf.getShort((int) localOffset + 26) & 0xFFFF)
+                    + (buf.getShort((int) localOffset + 28) & 0xFFFF);
+            if (dataOffset + compressedSize > cdOffset) return null;
+            if (method == METHOD_STORED || method == METHOD_DEFLATED)
+                entries.add(new Entry(name, method, crc, dataOffset, compressedSize, uncompressedSize));
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.dataOffset));
+        long end = 0;
+        for (Entry entry : entries) {
+            if (end > entry.dataOffset) return null;
+            entry.rawStart = end;
+            end = entry.dataOffset + entry.compressedSize;
+        }
+        return entries;
+    }
+
+    static final class Entry {
+        final String name;
+        final byte method;
+        final int crc;
+        final long dataOffset;
+        final long compressedSize;
+        final long uncompressedSize;
+        /**
+         * End of the previous entry's data, so that the local header lies in {@code [rawStart, dataOffset)}.
+         */
+        long rawStart;
+        /**
+         * The old entry with identical compressed data, set while diffing.
+         */
+        Entry copyOf;
+
+        Entry(String name, int method, int crc, long dataOffset, long compressedSize, long uncompressedSize) {
+            this.name = name;
+            this.method = (byte) method;
+            this.crc = crc;
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * Moves copies and approximate matches from a slice of the old file to their offsets in the whole file.
+     */
+    private record ShiftedSink(CommandSink sink, long shift) implements CommandSink {
+        @Override
+        public void copy(long oldOffset, int length) throws IOException {
+            sink.copy(oldOffset + shift, length);
+        }
+
+        @Override
+        public void add(long oldOffset, byte[] diff, int off, int length) throws IOException {
+            sink.add(oldOffset + shift, diff, off, length);
+        }
+
+        @Override
+        public void insert(byte[] data, int off, int length) throws IOException {
+            sink.insert(data, off, length);
+        }
+    }
+
+    private record Recompressed(byte level, Entry base, int crc, byte[] patch) {
+    }
+}
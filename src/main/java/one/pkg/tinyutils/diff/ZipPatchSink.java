@@ -0,0 +1,31 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A patch writer for formats that can rebuild zip entries, see {@link ZipDiff}.
+ */
+interface ZipPatchSink extends PatchSink {
+    /**
+     * Rebuilds a zip entry by patching the contents of an old entry and compressing the result.
+     *
+     * @param level     the deflate level, or {@link ZipDiff#LEVEL_STORED}
+     * @param oldMethod the zip method of the old entry, or {@link ZipDiff#METHOD_NONE} to patch from nothing
+     * @param length    the size of the rebuilt entry data
+     * @param crc       the CRC-32 of the rebuilt entry data, which tells a deflater that compresses differently apart
+     *                  from a corrupted patch
+     * @param patch     a complete patch from the old to the new entry contents
+     */
+    void entry(byte level, byte oldMethod, long oldOffset, long oldLength, long length, int crc, byte[] patch)
+            throws IOException;
+
+    /**
+     * Opens a writer of a format that supports zip entries.
+     */
+    @FunctionalInterface
+    interface Factory extends PatchSink.Factory {
+        @Override
+        ZipPatchSink open(OutputStream out, long oldLength, byte[] oldMd5) throws IOException;
+    }
+}
@@ -0,0 +1,29 @@
+package one.pkg.tinyutils.diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a zip patch: a version 2 patch extended by the ENTRY command.
+ */
+final class ZipPatchWriter extends PatchWriter implements ZipPatchSink {
+    ZipPatchWriter(OutputStream out, long oldLength, byte[] oldMd5) throws IOException {
+        super(out, PatchFormat.VERSION_ZIP, oldLength, oldMd5);
+    }
+
+    @Override
+    public void entry(byte level, byte oldMethod, long oldOffset, long oldLength, long length, int crc, byte[] patch)
+            throws IOException {
+        flushCopy();
+        out.writeByte(PatchFormat.OP_ENTRY);
+        out.writeByte(level);
+        out.writeByte(oldMethod);
+        if (oldMethod != ZipDiff.METHOD_NONE) {
+            out.writeLong(oldOffset);
+            out.writeLong(oldLength);
+        }
+        out.writeLong(length);
+        out.writeInt(crc);
+        out.write(patch);
+    }
+}
@@ -0,0 +1,179 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting the bandwidth of {@link TinyDownload} tasks. The {@link #global() global} limiter applies
+ * to every task together, and a {@link #forHost(String) host} limiter additionally to every task downloading from that
+ * host; a read has to pass both.
+ * <p>
+ * The bucket holds up to {@link #burstBytes()} bytes and refills at {@link #bytesPerSecond()}, so a short burst goes
+ * through at full speed while the long-term average stays at the limit. Limits can be changed at any time and take
+ * effect for running downloads. Limiters start unlimited, in which case a read only costs a volatile field check.
+ */
+public final class BandwidthLimiter {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final BandwidthLimiter GLOBAL = new BandwidthLimiter();
+    private static final Map<String, BandwidthLimiter> HOSTS = new ConcurrentHashMap<>();
+
+    private volatile long bytesPerSecond;
+    private long burstBytes;
+    private double tokens;
+    private long refilledAt;
+    /**
+     * Incremented on every limit change, to release the readers waiting under the old limit.
+     */
+    private int generation;
+
+    private BandwidthLimiter() {
+    }
+
+    /**
+     * @return the limiter shared by all downloads
+     */
+    public static BandwidthLimiter global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the limiter shared by all downloads from {@code host}, created unlimited on first use
+     */
+    public static BandwidthLimiter forHost(String host) {
+        return HOSTS.computeIfAbsent(host.toLowerCase(Locale.ROOT), h -> new BandwidthLimiter());
+    }
+
+    /**
+     * Removes the limiter of {@code host}. Downloads already running keep using it until their next read.
+     */
+    public static void removeHost(String host) {
+        BandwidthLimiter limiter = HOSTS.remove(host.toLowerCase(Locale.ROOT));
+        if (limiter != null) limiter.removeLimit();
+    }
+
+    /**
+     * Limits the bandwidth with a burst of one second.
+     */
+    public void setLimit(long bytesPerSecond) {
+        setLimit(bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * Limits the bandwidth. Readers waiting under the previous limit are released; the bytes they already received
+     * still count against the new one.
+     *
+     * @param bytesPerSecond the long-term average rate, or {@code 0} for no limit
+     * @param burstBytes     the bytes that may be read at once after the limiter was idle
+     * @throws IllegalArgumentException if the rate is negative, or the burst is not positive for a limited rate
+     */
+    public synchronized void setLimit(long bytesPerSecond, long burstBytes) throws IllegalArgumentException {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("Rate must not be negative.");
+        if (bytesPerSecond > 0 && burstBytes <= 0) throw new IllegalArgumentException("Burst must be positive.");
+        long now = System.nanoTime();
+        // A new limit starts with a full bucket; a changed one keeps its tokens or debt
+        if (this.bytesPerSecond == 0) tokens = burstBytes;
+        else tokens = Math.min(burstBytes, refill(now));
+        refilledAt = now;
+        this.burstBytes = bytesPerSecond == 0 ? 0 : burstBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        generation++;
+        notifyAll();
+    }
+
+    public void removeLimit() {
+        setLimit(0, 0);
+    }
+
+    /**
+     * @return the limit, or {@code 0} if unlimited
+     */
+    public long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized long burstBytes() {
+        return burstBytes;
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond != 0;
+    }
+
+    /**
+     * Takes {@code bytes} that were just read from the bucket, waiting while it is in debt. Readers wait in the order
+     * they took their bytes, each until the debt up to and including its own is refilled.
+     */
+    private void acquire(int bytes) throws InterruptedException {
+        if (bytesPerSecond == 0) return;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate == 0) return;
+            long now = System.nanoTime();
+            tokens = refill(now) - bytes;
+            refilledAt = now;
+            if (tokens >= 0) return;
+
+            long deadline = now + (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate);
+            int generation = this.generation;
+            long remaining;
+            while (generation == this.generation && (remaining = deadline - System.nanoTime()) > 0)
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private double refill(long now) {
+        return Math.min(burstBytes, tokens + (now - refilledAt) * bytesPerSecond / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Wraps the body of a response from {@code url} so that every read passes the global and host limiters.
+     */
+    static InputStream throttle(InputStream in, URI url) {
+        String host = url.getHost();
+        return new ThrottledInputStream(in, host == null ? null : host.toLowerCase(Locale.ROOT));
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final @Nullable String host;
+
+        private ThrottledInputStream(InputStream in, @Nullable String host) {
+            super(in);
+            this.host = host;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) acquire(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) acquire(n);
+            return n;
+        }
+
+        private void acquire(int bytes) throws InterruptedIOException {
+            try {
+                GLOBAL.acquire(bytes);
+                // The host is looked up on every read, so a limit set during a download applies to it
+                BandwidthLimiter limiter = host == null || HOSTS.isEmpty() ? null : HOSTS.get(host);
+                if (limiter != null) limiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package one.pkg.tinyutils.network.download;
+
+/**
+ * The HTTP implementations {@link TinyDownload} can download with.
+ */
+public enum DownloadEngine {
+    /**
+     * {@link java.net.HttpURLConnection}, one connection per request. Supports every {@link java.net.Proxy} type.
+     */
+    URL_CONNECTION,
+    /**
+     * {@link java.net.http.HttpClient}, shared by all tasks using the same proxy. Connections and TLS sessions are
+     * reused across requests and tasks, and with HTTP/2 the range requests of a multi-threaded download are multiplexed
+     * over a single connection. SOCKS proxies are not supported by the client; tasks using one fall back to
+     * {@link #URL_CONNECTION}.
+     */
+    HTTP_CLIENT
+}
@@ -0,0 +1,125 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The progress of a multi-threaded download, kept in a sidecar file next to the output so that an interrupted
+ * download continues with the missing ranges instead of starting over.
+ * <p>
+ * The state is only reused while the server reports the same length and validator: a strong {@code ETag}, or the
+ * {@code Last-Modified} date without one. Range requests repeat the validator in {@code If-Range}, so a resource that
+ * changes in between is sent in full and the download restarts instead of mixing two versions.
+ */
+final class DownloadState {
+    private static final int MAGIC = 0x7D0A5E5E;
+    private static final byte VERSION = 1;
+    private static final int MAX_RANGES = 1 << 16;
+
+    private final String url;
+    private final long length;
+    private final String validator;
+    private final long[] ranges;
+
+    private DownloadState(String url, long length, String validator, long[] ranges) {
+        this.url = url;
+        this.length = length;
+        this.validator = validator;
+        this.ranges = ranges;
+    }
+
+    static File sidecar(File outputFile) {
+        return new File(outputFile.getPath() + ".resume");
+    }
+
+    /**
+     * Returns the validator to resume a resource with, or {@code null} if the server did not send a usable one.
+     */
+    static @Nullable String validator(Transport.Response response) {
+        String etag = response.header("ETag");
+        // Weak entity tags must not be used in If-Range
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return response.header("Last-Modified");
+    }
+
+    static DownloadState of(String url, long length, String validator, List<Segment> segments) {
+        long[] ranges = new long[segments.size() * 2];
+        int count = 0;
+        for (Segment segment : segments) {
+            long position = segment.position();
+            if (position > segment.end()) continue;
+            ranges[count++] = position;
+            ranges[count++] = segment.end();
+        }
+        return new DownloadState(url, length, validator, Arrays.copyOf(ranges, count));
+    }
+
+    /**
+     * Reads a sidecar, returning {@code null} if it is missing, unreadable or belongs to another resource version.
+     */
+    static @Nullable DownloadState read(File sidecar, String url, long length, String validator) {
+        if (!sidecar.isFile()) return null;
+        try (InputStream in = Files.newInputStream(sidecar.toPath())) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readByte() != VERSION) return null;
+            String savedUrl = data.readUTF();
+            long savedLength = data.readLong();
+            String savedValidator = data.readUTF();
+            int count = data.readInt();
+            if (count < 0 || count > MAX_RANGES) return null;
+            DownloadState state = new DownloadState(savedUrl, savedLength, savedValidator, new long[count * 2]);
+            for (int i = 0; i < state.ranges.length; i++) state.ranges[i] = data.readLong();
+            if (!state.url.equals(url) || state.length != length || !state.validator.equals(validator)) return null;
+            for (int i = 0; i < state.ranges.length; i += 2) {
+                if (state.ranges[i] < 0 || state.ranges[i] > state.ranges[i + 1] || state.ranges[i + 1] >= length)
+                    return null;
+            }
+            return state;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the sidecar, so that a crash while writing leaves the previous state intact.
+     */
+    void write(File sidecar) throws IOException {
+        Path target = sidecar.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeUTF(url);
+            data.writeLong(length);
+            data.writeUTF(validator);
+            data.writeInt(ranges.length / 2);
+            for (long value : ranges) data.writeLong(value);
+            data.flush();
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    List<Segment> segments() {
+        List<Segment> segments = new ArrayList<>(ranges.length / 2);
+        for (int i = 0; i < ranges.length; i += 2) segments.add(new Segment(ranges[i], ranges[i + 1]));
+        return segments;
+    }
+}
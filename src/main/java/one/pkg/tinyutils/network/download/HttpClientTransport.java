@@ -0,0 +1,249 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests with a {@link HttpClient} that is shared by all downloads using the same proxy, so connections, TLS
+ * sessions and HTTP/2 streams are reused across requests and tasks.
+ */
+final class HttpClientTransport implements Transport {
+    /**
+     * Headers the client sets itself and refuses to take from the caller; {@link java.net.HttpURLConnection} silently
+     * drops them as well.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+    private static final Map<Proxy, HttpClientTransport> TRANSPORTS = new ConcurrentHashMap<>();
+    /**
+     * Wraps response bodies in a {@link StallGuard}, since the client enforces no read timeout on them.
+     */
+    private static final HttpResponse.BodyHandler<InputStream> BODY = info -> HttpResponse.BodySubscribers.mapping(
+            HttpResponse.BodySubscribers.ofInputStream(), StallGuard::new);
+
+    private final HttpClient client;
+
+    private HttpClientTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the shared transport of a proxy.
+     *
+     * @param proxy an HTTP proxy, {@link Proxy#NO_PROXY}, or {@code null} for the system default proxy selector
+     */
+    static HttpClientTransport of(@Nullable Proxy proxy) {
+        if (proxy == null) return DefaultHolder.INSTANCE;
+        return TRANSPORTS.computeIfAbsent(proxy, p -> new HttpClientTransport(createClient(p)));
+    }
+
+    private static HttpClient createClient(@Nullable Proxy proxy) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT));
+        if (proxy == null) {
+            ProxySelector selector = ProxySelector.getDefault();
+            if (selector != null) builder.proxy(selector);
+        } else if (proxy.type() == Proxy.Type.DIRECT) {
+            builder.proxy(HttpClient.Builder.NO_PROXY);
+        } else {
+            builder.proxy(ProxySelector.of((InetSocketAddress) proxy.address()));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Response probe(URI url, @Nullable Map<String, String> header) throws IOException {
+        Response response = new ClientResponse(send(head(url, header), HttpResponse.BodyHandlers.discarding()));
+        if (!headUnsupported(response.status())) return response;
+        return get(url, header, -1, -1, null);
+    }
+
+    /**
+     * Like {@link #probe(URI, Map)}, but completes on the client's executor instead of blocking.
+     */
+    CompletableFuture<Response> probeAsync(URI url, @Nullable Map<String, String> header) {
+        return client.sendAsync(head(url, header).build(), HttpResponse.BodyHandlers.discarding())
+                .thenCompose(response -> {
+                    if (!headUnsupported(response.statusCode()))
+                        return CompletableFuture.completedFuture(new ClientResponse(response));
+                    return client.sendAsync(rangeRequest(url, header, -1, -1, null).build(), BODY).thenApply(ClientResponse::new);
+                });
+    }
+
+    @Override
+    public Response get(URI url, @Nullable Map<String, String> header, long start, long end, @Nullable String ifRange)
+            throws IOException {
+        return new ClientResponse(send(rangeRequest(url, header, start, end, ifRange), BODY));
+    }
+
+    private static HttpRequest.Builder head(URI url, @Nullable Map<String, String> header) {
+        return request(url, header).method("HEAD", HttpRequest.BodyPublishers.noBody());
+    }
+
+    private static HttpRequest.Builder rangeRequest(URI url, @Nullable Map<String, String> header, long start, long end,
+                                                    @Nullable String ifRange) {
+        HttpRequest.Builder request = request(url, header).GET();
+        if (start >= 0) {
+            request.setHeader("Range", "bytes=" + start + "-" + end);
+            if (ifRange != null) request.setHeader("If-Range", ifRange);
+        }
+        return request;
+    }
+
+    /**
+     * Some servers do not implement HEAD; the probe then asks for the body instead and never reads it.
+     */
+    private static boolean headUnsupported(int status) {
+        return status == 405 || status == 501;
+    }
+
+    private static HttpRequest.Builder request(URI url, @Nullable Map<String, String> header) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(url)
+                .timeout(Duration.ofMillis(READ_TIMEOUT))
+                .setHeader("User-Agent", USER_AGENT);
+        if (header != null) {
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                if (!RESTRICTED_HEADERS.contains(entry.getKey().toLowerCase(Locale.ROOT)))
+                    request.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        return request;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        HttpRequest built = request.build();
+        try {
+            return client.send(built, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for " + built.uri());
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final HttpClientTransport INSTANCE = new HttpClientTransport(createClient(null));
+    }
+
+    private static final class WatchdogHolder {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TinyDownload-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Closes the body once a read is blocked for {@link #READ_TIMEOUT}, which the client only enforces until the
+     * headers arrive. Closing unblocks the read, which then fails like a timed out {@link java.net.HttpURLConnection}.
+     * Time between reads, such as a {@link BandwidthLimiter} pause, does not count.
+     */
+    private static final class StallGuard extends FilterInputStream {
+        private final ScheduledFuture<?> check;
+        private volatile long readingSince;
+        private volatile boolean stalled;
+
+        private StallGuard(InputStream in) {
+            super(in);
+            check = WatchdogHolder.INSTANCE.scheduleWithFixedDelay(this::check, READ_TIMEOUT / 4, READ_TIMEOUT / 4,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void check() {
+            long since = readingSince;
+            if (since == 0 || System.nanoTime() - since < TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT)) return;
+            stalled = true;
+            try {
+                close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            readingSince = System.nanoTime();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw stalled ? timeout(e) : e;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            readingSince = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw stalled ? timeout(e) : e;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        private static IOException timeout(IOException cause) {
+            SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+            timeout.initCause(cause);
+            return timeout;
+        }
+
+        @Override
+        public void close() throws IOException {
+            check.cancel(false);
+            super.close();
+        }
+    }
+
+    private record ClientResponse(HttpResponse<?> response) implements Response {
+        @Override
+        public int status() {
+            return response.statusCode();
+        }
+
+        @Override
+        public long contentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public @Nullable String header(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream body() {
+            return response.body() instanceof InputStream in ? in : InputStream.nullInputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (response.body() instanceof InputStream in) in.close();
+        }
+    }
+}
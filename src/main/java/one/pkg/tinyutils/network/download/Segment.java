@@ -0,0 +1,79 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A byte range of a multi-threaded download, written in place from {@link #position()} up to {@link #end()}
+ * inclusive.
+ * <p>
+ * Only the worker downloading a segment advances its position. Another worker may {@link #split(long) split} off the
+ * upper half at any time, after which the owner stops at the new end; bytes both happen to write are identical.
+ */
+final class Segment {
+    private volatile long position;
+    private volatile long end;
+    private long startedAt;
+    private long startedPosition;
+
+    Segment(long position, long end) {
+        this.position = position;
+        this.end = end;
+    }
+
+    /**
+     * @return the next byte to download
+     */
+    long position() {
+        return position;
+    }
+
+    long end() {
+        return end;
+    }
+
+    /**
+     * Records that the bytes up to {@code position} exclusive are written.
+     */
+    void advance(long position) {
+        this.position = position;
+    }
+
+    boolean done() {
+        return position > end;
+    }
+
+    /**
+     * Starts measuring the throughput of the segment, when a worker begins downloading it.
+     */
+    synchronized void start() {
+        startedAt = System.nanoTime();
+        startedPosition = position;
+    }
+
+    /**
+     * Estimates the time until the segment is complete from its throughput so far; a segment that has not received
+     * anything yet counts as the slowest.
+     */
+    synchronized double remainingNanos() {
+        long remaining = end + 1 - position;
+        long received = position - startedPosition;
+        if (remaining <= 0) return 0;
+        if (received <= 0) return Double.MAX_VALUE;
+        return (double) remaining * (System.nanoTime() - startedAt) / received;
+    }
+
+    /**
+     * Takes the upper half of the remaining bytes away from this segment.
+     *
+     * @param minimum the smallest size of either half
+     * @return the upper half, or {@code null} if the remainder is too small to split
+     */
+    synchronized @Nullable Segment split(long minimum) {
+        long remaining = end + 1 - position;
+        if (remaining < minimum * 2) return null;
+        long middle = position + remaining / 2;
+        Segment upper = new Segment(middle, end);
+        end = middle - 1;
+        return upper;
+    }
+}
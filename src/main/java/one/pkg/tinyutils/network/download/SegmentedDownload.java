@@ -0,0 +1,302 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a resource with concurrent range requests, each worker writing straight to its offset of the
+ * preallocated output file.
+ * <p>
+ * The file is cut into several segments per connection, which workers pull from a shared queue. Once the queue is
+ * empty, an idle worker splits the in-flight segment with the longest estimated time left and takes its upper half,
+ * so a slow connection cannot hold up the end of the download. The number of connections starts at half the maximum
+ * and is adjusted every second: a connection is added while the last one added raised the total throughput by at
+ * least half the average throughput per connection, and is dropped again otherwise.
+ * <p>
+ * If the server sent a validator, the remaining ranges are saved to a {@link DownloadState sidecar} every second and
+ * when the download fails, and a later attempt for the same file continues from there.
+ */
+final class SegmentedDownload {
+    /**
+     * The smallest segment the file is cut into up front.
+     */
+    private static final long MIN_SEGMENT = 1 << 20;
+    /**
+     * The smallest half an in-flight segment is split into; below this a second request costs more than it saves.
+     */
+    private static final long MIN_SPLIT = 256 * 1024;
+    private static final int SEGMENTS_PER_CONNECTION = 4;
+    private static final long TICK_MILLIS = 1000;
+    /**
+     * The ticks to wait after dropping a connection before trying to add one again.
+     */
+    private static final int HOLD_TICKS = 5;
+
+    private final Transport transport;
+    private final URI url;
+    private final @Nullable Map<String, String> header;
+    private final @Nullable String validator;
+    private final File outputFile;
+    private final long contentLength;
+    private final int maxConnections;
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    private final Deque<Segment> queue = new ArrayDeque<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Segment> active = new ArrayList<>();
+    private int workers;
+    private int targetWorkers;
+    private @Nullable Exception failure;
+
+    private long lastBytes;
+    private double lastRate;
+    private boolean increased;
+    private int hold;
+
+    SegmentedDownload(Transport transport, URI url, @Nullable Map<String, String> header, @Nullable String validator,
+                      File outputFile, long contentLength, int maxConnections) {
+        this.transport = transport;
+        this.url = url;
+        this.header = header;
+        this.validator = validator;
+        this.outputFile = outputFile;
+        this.contentLength = contentLength;
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    boolean run() throws Exception {
+        File sidecar = DownloadState.sidecar(outputFile);
+        DownloadState saved = validator == null || outputFile.length() != contentLength ? null
+                : DownloadState.read(sidecar, url.toString(), contentLength, validator);
+        if (saved != null) {
+            segments.addAll(saved.segments());
+        } else {
+            // A single connection downloads everything with one request
+            long size = maxConnections == 1 ? contentLength : Math.max(MIN_SEGMENT,
+                    (contentLength + maxConnections * SEGMENTS_PER_CONNECTION - 1) / (maxConnections * SEGMENTS_PER_CONNECTION));
+            for (long start = 0; start < contentLength; start += size)
+                segments.add(new Segment(start, Math.min(contentLength, start + size) - 1));
+        }
+        queue.addAll(segments);
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConnections);
+        try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+            file.setLength(contentLength);
+            FileChannel channel = file.getChannel();
+
+            synchronized (this) {
+                targetWorkers = Math.max(1, (maxConnections + 1) / 2);
+                for (int i = 0; i < targetWorkers; i++) addWorker(executor, channel);
+            }
+
+            try {
+                long nextTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+                while (true) {
+                    synchronized (this) {
+                        if (failure != null) throw failure;
+                        if (workers == 0) break;
+                        long wait = TimeUnit.NANOSECONDS.toMillis(nextTick - System.nanoTime());
+                        if (wait > 0) {
+                            wait(wait);
+                            continue;
+                        }
+                    }
+                    nextTick += TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+                    if (validator != null) saveState(channel, sidecar);
+                    adjustConnections(executor, channel);
+                }
+                synchronized (this) {
+                    for (Segment segment : segments) {
+                        if (!segment.done()) throw new IOException("Download stopped with missing ranges");
+                    }
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (failure == null) failure = e;
+                }
+                if (validator != null) {
+                    try {
+                        saveState(channel, sidecar);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+
+            channel.force(false);
+            Files.deleteIfExists(sidecar.toPath());
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void addWorker(ExecutorService executor, FileChannel channel) {
+        workers++;
+        executor.execute(() -> work(channel));
+    }
+
+    private void work(FileChannel channel) {
+        try {
+            Segment segment;
+            while ((segment = next()) != null) {
+                download(segment, channel);
+                synchronized (this) {
+                    active.remove(segment);
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                if (failure == null) failure = e;
+            }
+        } finally {
+            synchronized (this) {
+                workers--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Hands out the next queued segment, or else splits the in-flight segment expected to finish last.
+     *
+     * @return the segment to download, or {@code null} if the worker should stop
+     */
+    private synchronized @Nullable Segment next() {
+        if (failure != null || workers > targetWorkers) return null;
+        Segment segment = queue.poll();
+        if (segment == null) {
+            Segment slowest = null;
+            double slowestNanos = 0;
+            for (Segment candidate : active) {
+                double nanos = candidate.remainingNanos();
+                if (nanos > slowestNanos) {
+                    slowest = candidate;
+                    slowestNanos = nanos;
+                }
+            }
+            if (slowest == null || (segment = slowest.split(MIN_SPLIT)) == null) return null;
+            segments.add(segment);
+        }
+        segment.start();
+        active.add(segment);
+        return segment;
+    }
+
+    /**
+     * Moves the number of connections towards the best total throughput, one connection per tick.
+     */
+    private void adjustConnections(ExecutorService executor, FileChannel channel) {
+        long bytes = downloadedBytes.get();
+        double rate = (bytes - lastBytes) * 1000.0 / TICK_MILLIS;
+        lastBytes = bytes;
+        synchronized (this) {
+            if (increased) {
+                increased = false;
+                // Keep the new connection only if it carries at least half of an average one
+                double average = lastRate / Math.max(1, targetWorkers - 1);
+                if (rate < lastRate + average / 2) {
+                    targetWorkers--;
+                    hold = HOLD_TICKS;
+                }
+            } else if (hold > 0) {
+                hold--;
+            } else if (targetWorkers < maxConnections && (!queue.isEmpty() || !active.isEmpty())) {
+                targetWorkers++;
+                increased = true;
+                if (workers < targetWorkers) addWorker(executor, channel);
+            }
+        }
+        lastRate = rate;
+    }
+
+    /**
+     * Records the remaining ranges. The positions are read before the data is forced to disk, so the sidecar never
+     * claims bytes that a crash could still lose.
+     */
+    private void saveState(FileChannel channel, File sidecar) throws IOException {
+        DownloadState state;
+        synchronized (this) {
+            segments.removeIf(Segment::done);
+            state = DownloadState.of(url.toString(), contentLength, validator, segments);
+        }
+        channel.force(false);
+        state.write(sidecar);
+    }
+
+    /**
+     * Downloads a segment into its place in the output, advancing it as the data is written, until it is complete or
+     * its end was split off. A retry only requests the bytes that have not been written yet.
+     */
+    private void download(Segment segment, FileChannel channel) throws Exception {
+        int retries = 0;
+        Exception lastException = null;
+
+        while (retries < TinyDownload.MAX_RETRIES) {
+            long position = segment.position();
+            if (position > segment.end()) return;
+            try (Transport.Response response = transport.get(url, header, position, segment.end(), validator)) {
+                int responseCode = response.status();
+                // With If-Range, a full response means the resource changed; retrying the range cannot help
+                if (responseCode == HttpURLConnection.HTTP_OK && validator != null) {
+                    throw new ResourceChangedException(url);
+                }
+                // A server ignoring the range sends the whole file, which only fits if the range starts at zero
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL && (responseCode != HttpURLConnection.HTTP_OK || position != 0)) {
+                    throw new IOException("Server returned error code: " + responseCode);
+                }
+
+                try (InputStream inputStream = BandwidthLimiter.throttle(response.body(), url)) {
+                    byte[] buffer = new byte[TinyDownload.BUFFER_SIZE];
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                    long end;
+                    while (position <= (end = segment.end())) {
+                        int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position));
+                        if (bytesRead == -1) throw new EOFException("Connection closed " + (end + 1 - position) + " bytes before the end of the range");
+                        wrapped.clear().limit(bytesRead);
+                        while (wrapped.hasRemaining()) position += channel.write(wrapped, position);
+                        segment.advance(position);
+                        downloadedBytes.addAndGet(bytesRead);
+                    }
+                }
+                return;
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (Exception e) {
+                lastException = e;
+                retries++;
+                if (retries < TinyDownload.MAX_RETRIES) {
+                    Thread.sleep(1000L * retries);
+                }
+            }
+        }
+
+        throw new RuntimeException("Download task failed, maximum number of retries reached", lastException);
+    }
+
+    private static final class ResourceChangedException extends IOException {
+        private ResourceChangedException(URI url) {
+            super("Resource changed on the server while downloading " + url);
+        }
+    }
+}
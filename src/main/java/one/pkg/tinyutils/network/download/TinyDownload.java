@@ -3,25 +3,16 @@ package one.pkg.tinyutils.network.download;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URI;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @SuppressWarnings("all")
 public class TinyDownload {
-    private static final int BUFFER_SIZE = 8192;
-    private static final int MAX_RETRIES = 3;
-    private static final int CONNECT_TIMEOUT = 10000;
-    private static final int READ_TIMEOUT = 10000;
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_RETRIES = 3;
 
     public static boolean newTask(int threadCount, URI url, File outputFile, @Nullable Map<String, String> header) throws RuntimeException {
         return newTask(threadCount, url, outputFile, header, null);
@@ -44,13 +35,61 @@ public class TinyDownload {
     }
 
     public static boolean newTask(int threadCount, URI url, File outputFile, @Nullable Map<String, String> header, @Nullable Proxy proxy) throws RuntimeException {
+        return newTask(DownloadEngine.URL_CONNECTION, threadCount, url, outputFile, header, proxy);
+    }
+
+    public static boolean newTask(DownloadEngine engine, int threadCount, URI url, File outputFile) throws RuntimeException {
+        return newTask(engine, threadCount, url, outputFile, null, null);
+    }
+
+    /**
+     * Downloads a file, splitting it into {@code threadCount} range requests if the server supports them.
+     *
+     * @param engine      the HTTP implementation to download with
+     * @param threadCount the number of concurrent range requests
+     * @param url         the file to download
+     * @param outputFile  the file to write
+     * @param header      additional request headers, or {@code null}
+     * @param proxy       the proxy to connect through, or {@code null} for the system default
+     * @return {@code true} once the file is downloaded
+     * @throws RuntimeException if the download failed after retrying
+     */
+    public static boolean newTask(DownloadEngine engine, int threadCount, URI url, File outputFile,
+                                  @Nullable Map<String, String> header, @Nullable Proxy proxy) throws RuntimeException {
         try {
-            return downloadWithRetry(threadCount, url, outputFile, header, proxy, MAX_RETRIES);
+            return downloadWithRetry(threadCount, Transport.of(engine, proxy), url, outputFile, header, null, MAX_RETRIES);
         } catch (Exception e) {
             throw new RuntimeException("Download failed: " + e.getMessage(), e);
         }
     }
 
+    public static CompletableFuture<Boolean> newTaskAsync(DownloadEngine engine, int threadCount, URI url, File outputFile) {
+        return newTaskAsync(engine, threadCount, url, outputFile, null, null);
+    }
+
+    /**
+     * Starts {@link #newTask(DownloadEngine, int, URI, File, Map, Proxy)} without blocking the caller. With
+     * {@link DownloadEngine#HTTP_CLIENT} the first request is sent asynchronously and the transfer runs on the
+     * client's executor; otherwise the task runs on the common {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @return a future completing with {@code true} once the file is downloaded, or exceptionally with a
+     * {@link RuntimeException} if the download failed after retrying
+     */
+    public static CompletableFuture<Boolean> newTaskAsync(DownloadEngine engine, int threadCount, URI url, File outputFile,
+                                                          @Nullable Map<String, String> header, @Nullable Proxy proxy) {
+        Transport transport = Transport.of(engine, proxy);
+        if (!(transport instanceof HttpClientTransport client))
+            return CompletableFuture.supplyAsync(() -> newTask(engine, threadCount, url, outputFile, header, proxy));
+
+        return client.probeAsync(url, header).handle((probe, failure) -> {
+            try {
+                return downloadWithRetry(threadCount, transport, url, outputFile, header, probe, MAX_RETRIES);
+            } catch (Exception e) {
+                throw new CompletionException(new RuntimeException("Download failed: " + e.getMessage(), e));
+            }
+        });
+    }
+
     public static boolean newTask(URI url, File outputFile, @Nullable Map<String, String> header, @Nullable Proxy proxy) throws RuntimeException {
         return newTask(1, url, outputFile, header, proxy);
     }
@@ -87,8 +126,13 @@ public class TinyDownload {
 
     public static boolean newTaskToStream(URI url, OutputStream outputStream, @Nullable Map<String, String> header, @Nullable Proxy proxy)
             throws RuntimeException {
+        return newTaskToStream(DownloadEngine.URL_CONNECTION, url, outputStream, header, proxy);
+    }
+
+    public static boolean newTaskToStream(DownloadEngine engine, URI url, OutputStream outputStream,
+                                          @Nullable Map<String, String> header, @Nullable Proxy proxy) throws RuntimeException {
         try {
-            return downloadToStreamWithRetry(url, outputStream, header, proxy, MAX_RETRIES);
+            return downloadToStreamWithRetry(Transport.of(engine, proxy), url, outputStream, header, MAX_RETRIES);
         } catch (Exception e) {
             throw new RuntimeException("Download failed: " + e.getMessage(), e);
         }
@@ -144,202 +188,81 @@ public class TinyDownload {
         return newTaskToBytes(url, null, proxy);
     }
 
-    private static boolean downloadWithRetry(int threadCount, URI url, File outputFile,
-                                             @Nullable Map<String, String> header, @Nullable Proxy proxy, int retriesLeft) throws RuntimeException {
+    /**
+     * @param probe the response of an already sent probe for the first attempt, or {@code null}
+     */
+    private static boolean downloadWithRetry(int threadCount, Transport transport, URI url, File outputFile,
+                                             @Nullable Map<String, String> header, @Nullable Transport.Response probe,
+                                             int retriesLeft) throws RuntimeException {
         try {
-            return performDownload(threadCount, url, outputFile, header, proxy);
+            return performDownload(threadCount, transport, url, outputFile, header, probe);
         } catch (Exception e) {
             if (retriesLeft > 0) {
-                return downloadWithRetry(threadCount, url, outputFile, header, proxy, retriesLeft - 1);
+                return downloadWithRetry(threadCount, transport, url, outputFile, header, null, retriesLeft - 1);
             } else {
                 throw new RuntimeException("Download failed, maximum number of retries reached", e);
             }
         }
     }
 
-    private static boolean downloadToStreamWithRetry(URI url, OutputStream outputStream,
-                                                     @Nullable Map<String, String> header, @Nullable Proxy proxy, int retriesLeft) throws RuntimeException {
+    private static boolean downloadToStreamWithRetry(Transport transport, URI url, OutputStream outputStream,
+                                                     @Nullable Map<String, String> header, int retriesLeft) throws RuntimeException {
         try {
-            return performDownloadToStream(url, outputStream, header, proxy);
+            return performDownloadToStream(transport, url, outputStream, header);
         } catch (Exception e) {
             if (retriesLeft > 0) {
-                return downloadToStreamWithRetry(url, outputStream, header, proxy, retriesLeft - 1);
+                return downloadToStreamWithRetry(transport, url, outputStream, header, retriesLeft - 1);
             } else {
                 throw new RuntimeException("Download failed, maximum number of retries reached", e);
             }
         }
     }
 
-    private static boolean performDownload(int threadCount, URI url, File outputFile,
-                                           @Nullable Map<String, String> header, @Nullable Proxy proxy) throws Exception {
+    private static boolean performDownload(int threadCount, Transport transport, URI url, File outputFile,
+                                           @Nullable Map<String, String> header, @Nullable Transport.Response probe) throws Exception {
         if (outputFile.getParentFile() != null && !outputFile.getParentFile().exists()) {
             outputFile.getParentFile().mkdirs();
         }
 
-        URL urlObj = url.toURL();
-        HttpURLConnection connection = createConnection(urlObj, header, proxy);
+        try (Transport.Response response = probe != null ? probe : transport.probe(url, header)) {
+            long contentLength = response.contentLength();
+            boolean supportRange = response.acceptsRanges();
 
-        try {
-            long contentLength = connection.getContentLengthLong();
-            boolean supportRange = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
-
-            if (contentLength <= 0 || threadCount <= 1 || !supportRange) {
-                return singleThreadDownload(urlObj, outputFile, header, proxy);
+            // Single-threaded downloads also use a range request when possible, so that they can be resumed
+            if (contentLength <= 0 || !supportRange) {
+                return singleThreadDownload(transport, url, outputFile, header);
             } else {
-                return multiThreadDownload(threadCount, urlObj, outputFile, header, proxy, contentLength);
+                return multiThreadDownload(Math.max(1, threadCount), transport, url, outputFile, header, contentLength,
+                        DownloadState.validator(response));
             }
-        } finally {
-            connection.disconnect();
         }
     }
 
-    private static boolean performDownloadToStream(URI url, OutputStream outputStream,
-                                                   @Nullable Map<String, String> header, @Nullable Proxy proxy) throws Exception {
-        URL urlObj = url.toURL();
-        HttpURLConnection connection = createConnection(urlObj, header, proxy);
-
-        try (InputStream inputStream = connection.getInputStream()) {
+    private static boolean performDownloadToStream(Transport transport, URI url, OutputStream outputStream,
+                                                   @Nullable Map<String, String> header) throws Exception {
+        try (Transport.Response response = transport.get(url, header, -1, -1, null);
+             InputStream inputStream = BandwidthLimiter.throttle(response.body(), url)) {
+            response.checkStatus();
             inputStream.transferTo(outputStream);
             outputStream.flush();
             return true;
-        } finally {
-            connection.disconnect();
         }
     }
 
-    private static boolean singleThreadDownload(URL url, File outputFile,
-                                                @Nullable Map<String, String> header, @Nullable Proxy proxy) throws IOException {
-        HttpURLConnection connection = createConnection(url, header, proxy);
-
-        try (InputStream inputStream = connection.getInputStream();
+    private static boolean singleThreadDownload(Transport transport, URI url, File outputFile,
+                                                @Nullable Map<String, String> header) throws IOException {
+        try (Transport.Response response = transport.get(url, header, -1, -1, null);
+             InputStream inputStream = BandwidthLimiter.throttle(response.body(), url);
              FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+            response.checkStatus();
             inputStream.transferTo(outputStream);
             return true;
-        } finally {
-            connection.disconnect();
-        }
-    }
-
-    private static boolean multiThreadDownload(int threadCount, URL url, File outputFile,
-                                               @Nullable Map<String, String> header, @Nullable Proxy proxy, long contentLength) throws Exception {
-        File tempDir = new File(outputFile.getParentFile(), outputFile.getName() + ".tmp");
-        if (!tempDir.exists()) {
-            tempDir.mkdirs();
-        }
-
-        long chunkSize = contentLength / threadCount;
-        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-        List<Future<Boolean>> futures = new ArrayList<>();
-        AtomicLong downloadedBytes = new AtomicLong(0);
-
-        try {
-            for (int i = 0; i < threadCount; i++) {
-                long start = i * chunkSize;
-                long end = (i == threadCount - 1) ? contentLength - 1 : (start + chunkSize - 1);
-                File tempFile = new File(tempDir, "part_" + i);
-
-                DownloadTask task = new DownloadTask(url, header, proxy, start, end, tempFile, downloadedBytes);
-                futures.add(executor.submit(task));
-            }
-
-            for (Future<Boolean> future : futures) {
-                if (!future.get()) {
-                    throw new RuntimeException("Download task failed");
-                }
-            }
-
-            mergeFiles(tempDir, outputFile, threadCount);
-
-            deleteDirectory(tempDir);
-
-            return true;
-        } finally {
-            executor.shutdown();
         }
     }
 
-    private static void mergeFiles(File tempDir, File outputFile, int threadCount) throws IOException {
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-            for (int i = 0; i < threadCount; i++) {
-                File tempFile = new File(tempDir, "part_" + i);
-                try (FileInputStream inputStream = new FileInputStream(tempFile)) {
-                    inputStream.transferTo(outputStream);
-                }
-            }
-        }
-    }
-
-    private static void deleteDirectory(File directory) {
-        if (directory.exists() && directory.isDirectory()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    file.delete();
-                }
-            }
-            directory.delete();
-        }
-    }
-
-    private static HttpURLConnection createConnection(URL url, @Nullable Map<String, String> header, @Nullable Proxy proxy) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) (proxy != null ? url.openConnection(proxy) : url.openConnection());
-        connection.setConnectTimeout(CONNECT_TIMEOUT);
-        connection.setReadTimeout(READ_TIMEOUT);
-        connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/142.0.0.0 Safari/537.36");
-
-        if (header != null) {
-            for (Map.Entry<String, String> entry : header.entrySet())
-                connection.setRequestProperty(entry.getKey(), entry.getValue());
-        }
-
-        return connection;
-    }
-
-    private record DownloadTask(URL url, @Nullable Map<String, String> header, @Nullable Proxy proxy, long start,
-                                long end, File outputFile, AtomicLong downloadedBytes) implements Callable<Boolean> {
-
-        @Override
-        public Boolean call() throws Exception {
-            int retries = 0;
-            Exception lastException = null;
-
-            while (retries < MAX_RETRIES) {
-                HttpURLConnection connection = null;
-                try {
-                    connection = createConnection(url, header, proxy);
-                    connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
-
-                    int responseCode = connection.getResponseCode();
-                    if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
-                        throw new IOException("Server returned error code: " + responseCode);
-                    }
-
-                    try (InputStream inputStream = connection.getInputStream();
-                         FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int bytesRead;
-                        while ((bytesRead = inputStream.read(buffer)) != -1) {
-                            outputStream.write(buffer, 0, bytesRead);
-                            downloadedBytes.addAndGet(bytesRead);
-                        }
-                    }
-
-                    return true;
-                } catch (Exception e) {
-                    lastException = e;
-                    retries++;
-                    if (retries < MAX_RETRIES) {
-                        Thread.sleep(1000L * retries);
-                    }
-                } finally {
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                }
-            }
-
-            throw new RuntimeException("Download task failed, maximum number of retries reached", lastException);
-        }
+    private static boolean multiThreadDownload(int threadCount, Transport transport, URI url, File outputFile,
+                                               @Nullable Map<String, String> header, long contentLength,
+                                               @Nullable String validator) throws Exception {
+        return new SegmentedDownload(transport, url, header, validator, outputFile, contentLength, threadCount).run();
     }
-}
\ No newline at end of file
+}
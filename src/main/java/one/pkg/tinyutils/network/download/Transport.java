@@ -0,0 +1,66 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Sends the requests of a download with one of the {@link DownloadEngine engines}.
+ */
+interface Transport {
+    String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/142.0.0.0 Safari/537.36";
+    int CONNECT_TIMEOUT = 10000;
+    int READ_TIMEOUT = 10000;
+
+    static Transport of(DownloadEngine engine, @Nullable Proxy proxy) {
+        if (engine == DownloadEngine.HTTP_CLIENT && (proxy == null || proxy.type() != Proxy.Type.SOCKS))
+            return HttpClientTransport.of(proxy);
+        return new UrlConnectionTransport(proxy);
+    }
+
+    /**
+     * Requests the metadata of a resource. The body of the response is not read.
+     */
+    Response probe(URI url, @Nullable Map<String, String> header) throws IOException;
+
+    /**
+     * Requests a resource, or only the bytes {@code start} to {@code end} inclusive if {@code start} is not negative.
+     *
+     * @param ifRange an entity tag or date sent as {@code If-Range} with a range, or {@code null}
+     */
+    Response get(URI url, @Nullable Map<String, String> header, long start, long end, @Nullable String ifRange)
+            throws IOException;
+
+    /**
+     * A response whose headers have arrived. Closing it releases the connection.
+     */
+    interface Response extends Closeable {
+        int status();
+
+        /**
+         * @return the length of the body, or {@code -1} if unknown
+         */
+        long contentLength();
+
+        @Nullable String header(String name);
+
+        InputStream body() throws IOException;
+
+        default boolean acceptsRanges() {
+            return "bytes".equalsIgnoreCase(header("Accept-Ranges"));
+        }
+
+        /**
+         * @throws IOException if the status is not a success
+         */
+        default void checkStatus() throws IOException {
+            int status = status();
+            if (status < 200 || status >= 300) throw new IOException("Server returned error code: " + status);
+        }
+    }
+}
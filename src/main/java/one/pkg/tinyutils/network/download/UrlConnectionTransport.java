@@ -0,0 +1,79 @@
+package one.pkg.tinyutils.network.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends every request on a new {@link HttpURLConnection}.
+ */
+final class UrlConnectionTransport implements Transport {
+    private final @Nullable Proxy proxy;
+
+    UrlConnectionTransport(@Nullable Proxy proxy) {
+        this.proxy = proxy;
+    }
+
+    @Override
+    public Response probe(URI url, @Nullable Map<String, String> header) throws IOException {
+        return get(url, header, -1, -1, null);
+    }
+
+    @Override
+    public Response get(URI url, @Nullable Map<String, String> header, long start, long end, @Nullable String ifRange)
+            throws IOException {
+        HttpURLConnection connection = createConnection(url.toURL(), header);
+        if (start >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (ifRange != null) connection.setRequestProperty("If-Range", ifRange);
+        }
+        try {
+            return new ConnectionResponse(connection, connection.getResponseCode());
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private HttpURLConnection createConnection(URL url, @Nullable Map<String, String> header) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) (proxy != null ? url.openConnection(proxy) : url.openConnection());
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+
+        if (header != null) {
+            for (Map.Entry<String, String> entry : header.entrySet())
+                connection.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+
+        return connection;
+    }
+
+    private record ConnectionResponse(HttpURLConnection connection, int status) implements Response {
+        @Override
+        public long contentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public @Nullable String header(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            connection.disconnect();
+        }
+    }
+}